@@ -0,0 +1,93 @@
+import { css, html, LitElement, nothing } from 'lit';
+import { customElement, property } from 'lit/decorators.js';
+
+/**
+ * Seat map rendered entirely in the browser. The server sends the layout and the
+ * occupancy once as properties; a click selects the seat locally and fires a single
+ * `seat-selected` event with the seat id.
+ */
+@customElement('seat-map')
+export class SeatMap extends LitElement {
+  static styles = css`
+    :host {
+      display: block;
+    }
+    .row {
+      display: flex;
+      align-items: center;
+    }
+    .row-number {
+      width: 20px;
+    }
+    .aisle {
+      width: 20px;
+    }
+    button {
+      width: 30px;
+      height: 30px;
+      margin: 2px;
+      padding: 0;
+      border: none;
+      border-radius: var(--lumo-border-radius-s, 4px);
+      background-color: lightgray;
+      color: black;
+      line-height: 30px;
+      text-align: center;
+      cursor: pointer;
+    }
+    button.selected {
+      background-color: blue;
+      color: white;
+    }
+    button:disabled {
+      background-color: darkgray;
+      cursor: not-allowed;
+    }
+  `;
+
+  @property({ type: Number }) rows = 0;
+
+  /** One letter per seat in a row, e.g. "ABCDEF". */
+  @property() letters = '';
+
+  /** Number of seats left of the aisle. */
+  @property({ type: Number }) aisleAfter = 0;
+
+  /** One character per seat, row by row: '1' if the seat is taken, '0' if it is free. */
+  @property() occupied = '';
+
+  @property() selected = '';
+
+  render() {
+    const rows = [];
+    for (let row = 1; row <= this.rows; row++) {
+      rows.push(html`<div class="row">
+        <span class="row-number">${row}</span>
+        ${[...this.letters].map((letter, i) => {
+          const seat = `${row}${letter}`;
+          const isSelected = seat === this.selected;
+          const isOccupied = !isSelected && this.occupied.charAt((row - 1) * this.letters.length + i) === '1';
+          return html`<button
+              class=${isSelected ? 'selected' : ''}
+              ?disabled=${isOccupied}
+              @click=${() => this.select(seat)}>
+              ${letter}
+            </button>
+            ${i + 1 === this.aisleAfter ? html`<div class="aisle"></div>` : nothing}`;
+        })}
+      </div>`);
+    }
+    return rows;
+  }
+
+  private select(seat: string) {
+    this.selected = seat;
+    this.dispatchEvent(new CustomEvent('seat-selected', { detail: { seat } }));
+  }
+}
+
+declare global {
+  interface HTMLElementTagNameMap {
+    'seat-map': SeatMap;
+  }
+}
@@ -0,0 +1,92 @@
+package ai.spring.demo.ai.playground.data;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recovery time of {@link BookingJournal}: memory-mapping a snapshot of all bookings and
+ * replaying a log tail that changed 10% of them.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class BookingJournalBenchmark {
+
+	@Param({ "100000", "1000000" })
+	int bookings;
+
+	Path directory;
+
+	@Setup
+	public void setup() throws IOException {
+		directory = Files.createTempDirectory("booking-journal-benchmark");
+		BookingData db = generate(bookings);
+		try (BookingJournal journal = BookingJournal.open(directory, Duration.ofMillis(10))) {
+			journal.snapshot(db);
+			List<Booking> all = db.getBookings();
+			for (int i = 0; i < all.size(); i += 10) {
+				Booking booking = all.get(i);
+				booking.setBookingStatus(BookingStatus.CANCELLED);
+				journal.append(booking);
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		FileSystemUtils.deleteRecursively(directory);
+	}
+
+	@Benchmark
+	public BookingData recover() {
+		BookingData db = new BookingData();
+		try (BookingJournal journal = BookingJournal.open(directory, Duration.ofSeconds(1))) {
+			journal.recover(db);
+		}
+		return db;
+	}
+
+	private static BookingData generate(int count) {
+		List<Customer> customers = new ArrayList<>();
+		List<Booking> bookings = new ArrayList<>(count);
+		Customer customer = null;
+		for (int i = 0; i < count; i++) {
+			if (i % 4 == 0) {
+				customer = new Customer("First" + i, "Last" + i);
+				customers.add(customer);
+			}
+			Booking booking = new Booking("1" + i, LocalDate.now().plusDays(3 + i % 300), customer,
+					BookingStatus.CONFIRMED, "LAX", "JFK", (i % SeatInventory.ROWS + 1) + "A", BookingClass.ECONOMY);
+			customer.getBookings().add(booking);
+			bookings.add(booking);
+		}
+		BookingData db = new BookingData();
+		db.setCustomers(customers);
+		db.setBookings(bookings);
+		return db;
+	}
+
+}
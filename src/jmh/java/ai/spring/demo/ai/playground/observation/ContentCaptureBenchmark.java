@@ -0,0 +1,116 @@
+package ai.spring.demo.ai.playground.observation;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.observation.ChatModelObservationContext;
+import org.springframework.ai.chat.prompt.Prompt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request thread overhead of capturing the prompt and completion of a model call: no
+ * capture, capture formatted on the request thread (what the Spring AI content options
+ * do) and the asynchronous {@link ContentCaptureHandler}. The prompt has the size of a
+ * turn late in a conversation: system prompt, 20 history messages and RAG context.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ContentCaptureBenchmark {
+
+	@Param({ "off", "inline", "async" })
+	String capture;
+
+	ObservationRegistry registry;
+
+	ContentCaptureHandler handler;
+
+	Prompt prompt;
+
+	ChatResponse response;
+
+	final LongAdder captured = new LongAdder();
+
+	@Setup
+	public void setup() {
+		String paragraph = "The booking can be changed up to 24 hours before departure for a fee. ".repeat(20);
+		List<Message> messages = new ArrayList<>();
+		messages.add(new SystemMessage("You are a customer chat support agent of an airline. " + paragraph));
+		for (int i = 0; i < 10; i++) {
+			messages.add(new UserMessage("Question " + i + ": " + paragraph));
+			messages.add(new AssistantMessage("Answer " + i + ": " + paragraph));
+		}
+		messages.add(new UserMessage("Can I change my booking?\n\nContext information:\n" + paragraph.repeat(5)));
+		prompt = new Prompt(messages);
+		response = new ChatResponse(List.of(new Generation(new AssistantMessage(paragraph))));
+
+		handler = new ContentCaptureHandler(1000, 2000, text -> captured.increment(), new SimpleMeterRegistry());
+		registry = ObservationRegistry.create();
+		switch (capture) {
+			case "inline" -> registry.observationConfig().observationHandler(new InlineCapture(handler, captured));
+			case "async" -> registry.observationConfig().observationHandler(handler);
+			default -> registry.observationConfig().observationHandler(context -> true);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		handler.close();
+	}
+
+	@Benchmark
+	public ChatResponse modelCall() {
+		var context = ChatModelObservationContext.builder().prompt(prompt).provider("openai").build();
+		return Observation.createNotStarted("gen_ai.client.operation", () -> context, registry).observe(() -> {
+			context.setResponse(response);
+			return response;
+		});
+	}
+
+	// Formats the content when the observation stops, on the calling thread
+	record InlineCapture(ContentCaptureHandler formatter, LongAdder captured)
+			implements ObservationHandler<Observation.Context> {
+
+		@Override
+		public boolean supportsContext(Observation.Context context) {
+			return formatter.supportsContext(context);
+		}
+
+		@Override
+		public void onStop(Observation.Context context) {
+			if (!formatter.describe(null, context).isEmpty()) {
+				captured.increment();
+			}
+		}
+
+	}
+
+}
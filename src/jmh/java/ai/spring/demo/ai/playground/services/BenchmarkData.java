@@ -0,0 +1,78 @@
+package ai.spring.demo.ai.playground.services;
+
+import ai.spring.demo.ai.playground.data.*;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates reproducible booking data sets for the benchmarks.
+ */
+final class BenchmarkData {
+
+	static final List<String> FIRST_NAMES = List.of("John", "Jane", "Michael", "Sarah", "Robert", "Anna", "Lars",
+			"Mia", "Noah", "Emma");
+
+	static final int BOOKINGS_PER_CUSTOMER = 4;
+
+	static final List<String> AIRPORT_CODES = List.of("LAX", "SFO", "JFK", "LHR", "CDG", "ARN", "HEL", "TXL", "MUC",
+			"FRA", "MAD", "FUN", "SJC");
+
+	private BenchmarkData() {
+	}
+
+	/**
+	 * Booking numbers are "1" followed by the zero based index, so any index can be looked
+	 * up without keeping the data set around.
+	 */
+	static String bookingNumber(int index) {
+		return "1" + index;
+	}
+
+	// Every customer has BOOKINGS_PER_CUSTOMER consecutive bookings
+	static String firstName(int index) {
+		return FIRST_NAMES.get((index / BOOKINGS_PER_CUSTOMER) % FIRST_NAMES.size());
+	}
+
+	static String lastName(int index) {
+		return "Customer" + (index / BOOKINGS_PER_CUSTOMER);
+	}
+
+	/**
+	 * Creates a store with the given number of confirmed bookings, all departing between
+	 * 3 and 365 days from now so that the change and cancel rules allow them.
+	 */
+	static BookingData generate(int count) {
+		return generate(count, new BookingData());
+	}
+
+	/**
+	 * Fills the given store with the data set of {@link #generate(int)}.
+	 */
+	static BookingData generate(int count, BookingData db) {
+		Random random = new Random(42);
+		List<Customer> customers = new ArrayList<>(count / BOOKINGS_PER_CUSTOMER + 1);
+		List<Booking> bookings = new ArrayList<>(count);
+		Customer customer = null;
+		for (int i = 0; i < count; i++) {
+			if (i % BOOKINGS_PER_CUSTOMER == 0) {
+				customer = new Customer(firstName(i), lastName(i));
+				customers.add(customer);
+			}
+			String seatNumber = (random.nextInt(SeatInventory.ROWS) + 1)
+					+ String.valueOf(SeatInventory.SEAT_LETTERS.charAt(random.nextInt(SeatInventory.SEATS_PER_ROW)));
+			Booking booking = new Booking(bookingNumber(i), LocalDate.now().plusDays(3 + random.nextInt(362)),
+					customer, BookingStatus.CONFIRMED, AIRPORT_CODES.get(random.nextInt(AIRPORT_CODES.size())),
+					AIRPORT_CODES.get(random.nextInt(AIRPORT_CODES.size())), seatNumber,
+					BookingClass.values()[random.nextInt(BookingClass.values().length)]);
+			customer.getBookings().add(booking);
+			bookings.add(booking);
+		}
+		db.setCustomers(customers);
+		db.setBookings(bookings);
+		return db;
+	}
+
+}
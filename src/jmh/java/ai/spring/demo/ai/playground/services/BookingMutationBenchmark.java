@@ -0,0 +1,76 @@
+package ai.spring.demo.ai.playground.services;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code changeBooking} and {@code cancelBooking} from several threads at once. The
+ * {@code hotBookings} parameter controls contention: all threads update the same few
+ * bookings when it is small, and mostly distinct ones when it is large.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Threads(8)
+@State(Scope.Benchmark)
+public class BookingMutationBenchmark {
+
+	// Every booking moves between two flights of its own slot, so that with 100000 hot
+	// bookings each flight holds at most 50 of them and never runs out of seats
+	private static final int DATE_SLOTS = 2000;
+
+	@Param({ "1000", "1000000" })
+	int bookings;
+
+	@Param({ "1", "64", "100000" })
+	int hotBookings;
+
+	FlightBookingService service;
+
+	String[] newDates;
+
+	@Setup
+	public void setup() {
+		service = new FlightBookingService(BenchmarkData.generate(bookings));
+		// Past the dates of the generated bookings, so the target flights start empty
+		LocalDate first = LocalDate.now().plusDays(400);
+		newDates = new String[2 * DATE_SLOTS];
+		for (int i = 0; i < newDates.length; i++) {
+			newDates[i] = first.plusDays(i).toString();
+		}
+	}
+
+	@Benchmark
+	public void changeBooking() {
+		var random = ThreadLocalRandom.current();
+		int index = random.nextInt(Math.min(hotBookings, bookings));
+		service.changeBooking(BenchmarkData.bookingNumber(index), BenchmarkData.firstName(index),
+				BenchmarkData.lastName(index), newDates[index % DATE_SLOTS + DATE_SLOTS * random.nextInt(2)], "LAX",
+				"JFK");
+	}
+
+	// After the first call per booking this measures the already-cancelled fast path
+	@Benchmark
+	public void cancelBooking() {
+		int index = ThreadLocalRandom.current().nextInt(Math.min(hotBookings, bookings));
+		service.cancelBooking(BenchmarkData.bookingNumber(index), BenchmarkData.firstName(index),
+				BenchmarkData.lastName(index));
+	}
+
+}
@@ -0,0 +1,78 @@
+package ai.spring.demo.ai.playground.services;
+
+import ai.spring.demo.ai.playground.data.Booking;
+import ai.spring.demo.ai.playground.data.BookingData;
+import ai.spring.demo.ai.playground.data.CompactBookingData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The object graph store against {@link CompactBookingData}: retained heap, printed once
+ * per fork during setup, lookups by booking number and a scan of all bookings of a route.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class BookingStoreBenchmark {
+
+	@Param({ "objects", "compact" })
+	String layout;
+
+	@Param({ "1000000" })
+	int bookings;
+
+	BookingData db;
+
+	@Setup
+	public void setup() {
+		long before = usedHeap();
+		db = BenchmarkData.generate(bookings, layout.equals("compact") ? new CompactBookingData() : new BookingData());
+		long after = usedHeap();
+		System.out.printf("%n%s store: %d MB retained, %d bytes per booking%n", layout, (after - before) >> 20,
+				(after - before) / bookings);
+	}
+
+	@Benchmark
+	public Booking findBooking() {
+		return db.findBooking(BenchmarkData.bookingNumber(ThreadLocalRandom.current().nextInt(bookings)));
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int routeScan() {
+		List<Booking> all = db.getBookings();
+		int count = 0;
+		for (Booking booking : all) {
+			Booking.Snapshot snapshot = booking.snapshot();
+			if (snapshot.from().equals("LAX") && snapshot.to().equals("JFK")) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
@@ -0,0 +1,65 @@
+package ai.spring.demo.ai.playground.services;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.support.ToolCallbacks;
+import org.springframework.ai.tool.ToolCallback;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code getBookingDetails} tool as the model invokes it: JSON arguments in, method
+ * call through the tool callback, {@code BookingDetails} serialized to JSON out.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class BookingToolsBenchmark {
+
+	private static final int KEYS = 1024;
+
+	@Param({ "5", "1000", "100000", "1000000" })
+	int bookings;
+
+	ToolCallback getBookingDetails;
+
+	String[] arguments = new String[KEYS];
+
+	int next;
+
+	@Setup
+	public void setup() {
+		var tools = new BookingTools(new FlightBookingService(BenchmarkData.generate(bookings)));
+		getBookingDetails = Arrays.stream(ToolCallbacks.from(tools))
+			.filter(callback -> callback.getToolDefinition().name().equals("getBookingDetails"))
+			.findFirst()
+			.orElseThrow();
+		Random random = new Random(7);
+		for (int i = 0; i < KEYS; i++) {
+			int index = random.nextInt(bookings);
+			arguments[i] = """
+					{"bookingNumber":"%s","firstName":"%s","lastName":"%s"}""".formatted(
+					BenchmarkData.bookingNumber(index), BenchmarkData.firstName(index), BenchmarkData.lastName(index));
+		}
+	}
+
+	@Benchmark
+	public String getBookingDetails() {
+		return getBookingDetails.call(arguments[next++ & (KEYS - 1)]);
+	}
+
+}
@@ -0,0 +1,102 @@
+package ai.spring.demo.ai.playground.services;
+
+import ai.spring.demo.ai.playground.data.Booking;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * A schedule change of every booking departing on one day, each moved to the same route
+ * 300 days later: the bulk API against calling {@code changeBooking} once per booking.
+ * The new date is past the generated bookings, so every booking finds a seat; with a
+ * million bookings a day has about 2800 of them, spread over the routes at about 16 per
+ * flight. A fresh store is created for every invocation so each one changes the same
+ * bookings. The bulk variants include the scan selecting the bookings; the single
+ * booking variants get the selection for free.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class BulkBookingBenchmark {
+
+	private static final LocalDate DATE = LocalDate.now().plusDays(100);
+
+	private static final Predicate<Booking.Snapshot> DEPARTING = s -> s.date().equals(DATE);
+
+	@Param({ "100000", "1000000" })
+	int bookings;
+
+	FlightBookingService service;
+
+	List<Integer> selected;
+
+	List<Booking.Snapshot> selectedStates;
+
+	LocalDate newDate;
+
+	@Setup(Level.Invocation)
+	public void setup() {
+		var db = BenchmarkData.generate(bookings);
+		service = new FlightBookingService(db);
+		selected = new ArrayList<>();
+		selectedStates = new ArrayList<>();
+		for (int i = 0; i < bookings; i++) {
+			var snapshot = db.getBookings().get(i).snapshot();
+			if (DEPARTING.test(snapshot)) {
+				selected.add(i);
+				selectedStates.add(snapshot);
+			}
+		}
+		newDate = DATE.plusDays(300);
+	}
+
+	@Benchmark
+	public BulkResult bulkChange() {
+		return service.changeBookings(DEPARTING, newDate, null, null);
+	}
+
+	@Benchmark
+	public int singleChanges() {
+		String date = newDate.toString();
+		for (int i = 0; i < selected.size(); i++) {
+			int index = selected.get(i);
+			var snapshot = selectedStates.get(i);
+			service.changeBooking(BenchmarkData.bookingNumber(index), BenchmarkData.firstName(index),
+					BenchmarkData.lastName(index), date, snapshot.from(), snapshot.to());
+		}
+		return selected.size();
+	}
+
+	@Benchmark
+	public BulkResult bulkCancel() {
+		return service.cancelBookings(DEPARTING);
+	}
+
+	@Benchmark
+	public int singleCancels() {
+		for (int index : selected) {
+			service.cancelBooking(BenchmarkData.bookingNumber(index), BenchmarkData.firstName(index),
+					BenchmarkData.lastName(index));
+		}
+		return selected.size();
+	}
+
+}
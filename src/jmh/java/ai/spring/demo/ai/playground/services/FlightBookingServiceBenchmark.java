@@ -0,0 +1,73 @@
+package ai.spring.demo.ai.playground.services;
+
+import ai.spring.demo.ai.playground.data.BookingDetails;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read paths of {@link FlightBookingService}: single booking lookups as done by the
+ * {@code getBookingDetails} tool, and the full {@code getBookings} mapping used by the
+ * grid.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class FlightBookingServiceBenchmark {
+
+	private static final int KEYS = 1024;
+
+	@Param({ "5", "1000", "100000", "1000000" })
+	int bookings;
+
+	FlightBookingService service;
+
+	String[] bookingNumbers = new String[KEYS];
+
+	String[] firstNames = new String[KEYS];
+
+	String[] lastNames = new String[KEYS];
+
+	int next;
+
+	@Setup
+	public void setup() {
+		service = new FlightBookingService(BenchmarkData.generate(bookings));
+		Random random = new Random(7);
+		for (int i = 0; i < KEYS; i++) {
+			int index = random.nextInt(bookings);
+			bookingNumbers[i] = BenchmarkData.bookingNumber(index);
+			firstNames[i] = BenchmarkData.firstName(index);
+			lastNames[i] = BenchmarkData.lastName(index);
+		}
+	}
+
+	@Benchmark
+	public BookingDetails getBookingDetails() {
+		int i = next++ & (KEYS - 1);
+		return service.getBookingDetails(bookingNumbers[i], firstNames[i], lastNames[i]);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public List<BookingDetails> getBookings() {
+		return service.getBookings();
+	}
+
+}
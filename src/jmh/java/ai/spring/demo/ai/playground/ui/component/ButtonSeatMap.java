@@ -0,0 +1,76 @@
+package ai.spring.demo.ai.playground.ui.component;
+
+import ai.spring.demo.ai.playground.data.SeatInventory;
+import com.vaadin.flow.component.Composite;
+import com.vaadin.flow.component.button.Button;
+import com.vaadin.flow.component.html.Div;
+import com.vaadin.flow.component.html.Span;
+import com.vaadin.flow.component.orderedlayout.FlexLayout;
+import com.vaadin.flow.component.orderedlayout.VerticalLayout;
+
+import java.util.BitSet;
+
+/**
+ * The seat map as {@link SeatSelector} built it before it was rendered in the browser:
+ * a server-side tree of one layout per row and one styled button per seat, each free
+ * seat with its own click listener. Kept only as the baseline of
+ * {@link SeatSelectorBenchmark}.
+ */
+class ButtonSeatMap extends Composite<VerticalLayout> {
+
+    private String selectedSeat;
+
+    ButtonSeatMap(String selectedSeat, BitSet occupiedSeats) {
+        this.selectedSeat = selectedSeat;
+        VerticalLayout seatGrid = new VerticalLayout();
+        seatGrid.setPadding(false);
+        seatGrid.setSpacing(false);
+        for (int row = 1; row <= SeatInventory.ROWS; row++) {
+            FlexLayout seatRow = new FlexLayout();
+            seatRow.setAlignItems(FlexLayout.Alignment.CENTER);
+            Span rowNumber = new Span(String.valueOf(row));
+            rowNumber.getStyle().set("width", "20px");
+            seatRow.add(rowNumber);
+            for (int i = 0; i < SeatInventory.SEATS_PER_ROW; i++) {
+                char seatLetter = SeatInventory.SEAT_LETTERS.charAt(i);
+                String seatId = row + String.valueOf(seatLetter);
+                boolean isSelected = seatId.equals(selectedSeat);
+                boolean isOccupied = !isSelected && occupiedSeats.get(SeatInventory.seatIndex(seatId));
+                seatRow.add(seatButton(seatId, seatLetter, isSelected, isOccupied));
+                if (seatLetter == 'C') {
+                    Div aisle = new Div();
+                    aisle.getStyle().set("width", "20px");
+                    seatRow.add(aisle);
+                }
+            }
+            seatGrid.add(seatRow);
+        }
+        getContent().add(seatGrid);
+        getContent().setPadding(false);
+        getContent().setSpacing(false);
+    }
+
+    private Button seatButton(String seatId, char seatLetter, boolean isSelected, boolean isOccupied) {
+        Button seat = new Button(String.valueOf(seatLetter));
+        seat.getStyle()
+            .set("width", "30px")
+            .set("height", "30px")
+            .set("margin", "2px")
+            .set("padding", "0")
+            .set("background-color", isSelected ? "blue" : isOccupied ? "darkgray" : "lightgray")
+            .set("color", isSelected ? "white" : "black")
+            .set("text-align", "center")
+            .set("line-height", "30px")
+            .set("cursor", isOccupied ? "not-allowed" : "pointer");
+        if (isOccupied) {
+            seat.setEnabled(false);
+        } else {
+            seat.addClickListener(event -> selectedSeat = seatId);
+        }
+        return seat;
+    }
+
+    String getSelectedSeat() {
+        return selectedSeat;
+    }
+}
@@ -0,0 +1,74 @@
+package ai.spring.demo.ai.playground.ui.component;
+
+import ai.spring.demo.ai.playground.data.SeatInventory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server-side cost of one seat selection dialog, for the browser rendered
+ * {@link SeatSelector} ({@code element}) and the former tree of buttons
+ * ({@code buttons}, see {@link ButtonSeatMap}). Setup prints the heap retained per seat
+ * map while it is open; run with {@code -Djmh.args="-prof gc SeatSelector"} for
+ * {@code gc.alloc.rate.norm}, the bytes allocated to build one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SeatSelectorBenchmark {
+
+	// Seat maps kept alive at once to measure what each one retains
+	private static final int OPEN_DIALOGS = 1000;
+
+	@Param({ "element", "buttons" })
+	String layout;
+
+	BitSet occupiedSeats;
+
+	@Setup
+	public void setup() {
+		occupiedSeats = new BitSet(SeatInventory.SEATS);
+		for (int i = 0; i < SeatInventory.SEATS; i += 3) {
+			occupiedSeats.set(i);
+		}
+		long before = usedHeap();
+		List<Object> open = new ArrayList<>(OPEN_DIALOGS);
+		for (int i = 0; i < OPEN_DIALOGS; i++) {
+			open.add(create());
+		}
+		long after = usedHeap();
+		System.out.printf("%n%s seat map: %d bytes retained per dialog (%d open)%n", layout,
+				(after - before) / open.size(), open.size());
+	}
+
+	@Benchmark
+	public Object create() {
+		return layout.equals("buttons") ? new ButtonSeatMap("5C", occupiedSeats) : new SeatSelector("5C", occupiedSeats);
+	}
+
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
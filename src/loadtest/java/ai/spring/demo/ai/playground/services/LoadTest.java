@@ -0,0 +1,298 @@
+package ai.spring.demo.ai.playground.services;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.function.BiFunction;
+
+import ai.spring.demo.ai.playground.api.ChatStreams;
+import ai.spring.demo.ai.playground.chat.AdmissionController;
+import ai.spring.demo.ai.playground.chat.BoundedChatMemoryRepository;
+import ai.spring.demo.ai.playground.chat.RoutingChatModel;
+import ai.spring.demo.ai.playground.chat.StreamMetrics;
+import ai.spring.demo.ai.playground.chat.TokenBudgetAdvisor;
+import ai.spring.demo.ai.playground.chat.WindowedChatMemory;
+import ai.spring.demo.ai.playground.data.Booking;
+import ai.spring.demo.ai.playground.data.BookingClass;
+import ai.spring.demo.ai.playground.data.BookingData;
+import ai.spring.demo.ai.playground.data.BookingStatus;
+import ai.spring.demo.ai.playground.data.Customer;
+import ai.spring.demo.ai.playground.data.SeatInventory;
+import ai.spring.demo.ai.playground.rag.RetrievalCache;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.DefaultToolCallingManager;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.model.tool.ToolCallingManager;
+import org.springframework.ai.model.tool.ToolExecutionResult;
+import org.springframework.ai.reader.TextReader;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+
+/**
+ * Offline end-to-end load test of {@link CustomerSupportAssistant}.
+ * <p>
+ * The assistant is wired with the real tools, chat memory and retrieval cache, but with
+ * {@link StubChatModel} and {@link StubVectorStore} in place of the remote services, so
+ * runs are reproducible and free. Every session is a virtual thread holding one
+ * conversation about its own booking: look it up, change it, look it up again, cancel
+ * it. Run with {@code mvn -Pload-test verify}; the settings are system properties:
+ * <ul>
+ * <li>{@code loadtest.sessions} concurrent sessions (default 2000)</li>
+ * <li>{@code loadtest.turns} user messages per session (default 4)</li>
+ * <li>{@code loadtest.tokens} tokens per answer (default 100)</li>
+ * <li>{@code loadtest.first-token-latency} model latency per round trip (default 300ms)</li>
+ * <li>{@code loadtest.inter-token-latency} delay between tokens (default 20ms)</li>
+ * <li>{@code loadtest.providers} number of stub models behind a {@link RoutingChatModel};
+ * the n-th is n times slower than the first (default 1, no routing)</li>
+ * <li>{@code loadtest.admission-limit} initial number of concurrent streams admitted by
+ * the {@link AdmissionController} (default: the number of sessions)</li>
+ * <li>{@code loadtest.client} {@code direct} to call the assistant like the Vaadin view
+ * does, or {@code api} to read the replies through {@link ChatStreams} and encode every
+ * chunk as NDJSON like the HTTP API does (default direct)</li>
+ * </ul>
+ */
+public class LoadTest {
+
+	private static final List<String> AIRPORT_CODES = List.of("LAX", "SFO", "JFK", "LHR", "CDG", "ARN", "HEL", "TXL",
+			"MUC", "FRA", "MAD", "FUN", "SJC");
+
+	private static final int DAYS = 300;
+
+	public static void main(String[] args) throws Exception {
+		int sessions = Integer.getInteger("loadtest.sessions", 2000);
+		int turns = Integer.getInteger("loadtest.turns", 4);
+		int tokens = Integer.getInteger("loadtest.tokens", 100);
+		int providers = Integer.getInteger("loadtest.providers", 1);
+		int admissionLimit = Integer.getInteger("loadtest.admission-limit", sessions);
+		String client = System.getProperty("loadtest.client", "direct");
+		Duration firstTokenLatency = DurationStyle
+			.detectAndParse(System.getProperty("loadtest.first-token-latency", "300ms"));
+		Duration interTokenLatency = DurationStyle
+			.detectAndParse(System.getProperty("loadtest.inter-token-latency", "20ms"));
+
+		var registry = new SimpleMeterRegistry();
+		Timer timeToFirstToken = percentiles("loadtest.time.to.first.token", registry);
+		Timer toolLatency = percentiles("loadtest.tool.latency", registry);
+		Timer turnDuration = percentiles("loadtest.turn.duration", registry);
+
+		var embeddingModel = new StubEmbeddingModel();
+		var vectorStore = new StubVectorStore(embeddingModel);
+		vectorStore.add(new TokenTextSplitter()
+			.transform(new TextReader(new ClassPathResource("rag/terms-of-service.txt")).read()));
+		var chatMemory = new WindowedChatMemory(
+				new BoundedChatMemoryRepository(DataSize.ofGigabytes(1), Duration.ofHours(1), registry), 20, null);
+		ChatModel chatModel = new StubChatModel(firstTokenLatency, interTokenLatency, tokens, toolLatency);
+		if (providers > 1) {
+			Map<String, ChatModel> models = new LinkedHashMap<>();
+			for (int i = 1; i <= providers; i++) {
+				models.put("stub-" + i,
+						new StubChatModel(firstTokenLatency.multipliedBy(i), interTokenLatency, tokens, toolLatency));
+			}
+			chatModel = new RoutingChatModel(models, timed(DefaultToolCallingManager.builder().build(), toolLatency),
+					firstTokenLatency.multipliedBy(2), 0.2, registry);
+		}
+		var assistant = new CustomerSupportAssistant(ChatClient.builder(chatModel),
+				new BookingTools(new FlightBookingService(bookings(sessions))), vectorStore,
+				new RetrievalCache(embeddingModel, registry, true, true, 0.95, 1000, Duration.ofMinutes(30)),
+				new TokenBudgetAdvisor(registry, 8000, 0.6), chatMemory,
+				new AdmissionController(registry, admissionLimit, 2, Math.max(admissionLimit, 200), 0.8,
+						Duration.ofSeconds(5), sessions, Duration.ofMinutes(1), turns, Duration.ofSeconds(1)),
+				new StreamMetrics(registry));
+		BiFunction<String, String, Flux<String>> chat = switch (client) {
+			case "direct" -> assistant::chat;
+			case "api" -> ndjson(new ChatStreams(assistant, Duration.ofSeconds(30)));
+			default -> throw new IllegalArgumentException("Unknown loadtest.client: " + client);
+		};
+
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		long baselineHeap = usedHeapAfterGc(memory);
+		var peakHeap = new LongAccumulator(Math::max, baselineHeap);
+		ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+		sampler.scheduleAtFixedRate(() -> peakHeap.accumulate(memory.getHeapMemoryUsage().getUsed()), 0, 50,
+				TimeUnit.MILLISECONDS);
+
+		var totalTokens = new AtomicLong();
+		var failures = new AtomicInteger();
+		long start = System.nanoTime();
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int i = 0; i < sessions; i++) {
+				int session = i;
+				executor.submit(() -> {
+					for (int turn = 0; turn < turns; turn++) {
+						try {
+							runTurn(chat, session, turn, timeToFirstToken, turnDuration, totalTokens);
+						}
+						catch (RuntimeException e) {
+							failures.incrementAndGet();
+						}
+					}
+				});
+			}
+		}
+		Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+		sampler.shutdownNow();
+		long retainedHeap = usedHeapAfterGc(memory);
+
+		System.out.printf("%nSessions: %d x %d turns in %.1fs through the %s client, %d failed turns%n", sessions,
+				turns, elapsed.toMillis() / 1000.0, client, failures.get());
+		System.out.printf("Throughput: %.0f tokens/s, %.1f turns/s%n", totalTokens.get() * 1e9 / elapsed.toNanos(),
+				turnDuration.count() * 1e9 / elapsed.toNanos());
+		report("Time to first token", timeToFirstToken);
+		report("Tool latency", toolLatency);
+		report("Turn duration", turnDuration);
+		System.out.printf("Admission: limit %.0f, %.0f rejected%n", registry.get("chat.admission.limit").gauge().value(),
+				registry.find("chat.admission.rejected").counters().stream().mapToDouble(c -> c.count()).sum());
+		System.out.printf("Heap per session: %s peak, %s retained (chat memory)%n",
+				DataSize.ofBytes((peakHeap.get() - baselineHeap) / sessions),
+				DataSize.ofBytes((retainedHeap - baselineHeap) / sessions));
+	}
+
+	private static void runTurn(BiFunction<String, String, Flux<String>> chat, int session, int turn,
+			Timer timeToFirstToken, Timer turnDuration, AtomicLong totalTokens) {
+		String chatId = "session-" + session;
+		long start = System.nanoTime();
+		var firstToken = new AtomicLong();
+		chat.apply(chatId, message(session, turn)).doOnNext(token -> {
+			if (!token.isEmpty() && firstToken.compareAndSet(0, System.nanoTime())) {
+				timeToFirstToken.record(Duration.ofNanos(firstToken.get() - start));
+			}
+			totalTokens.incrementAndGet();
+		}).blockLast();
+		turnDuration.record(Duration.ofNanos(System.nanoTime() - start));
+	}
+
+	// The work of the HTTP API without the network: replies kept for resumption and every
+	// chunk serialized as a line of JSON
+	private static BiFunction<String, String, Flux<String>> ndjson(ChatStreams streams) {
+		ObjectMapper objectMapper = new ObjectMapper();
+		return (chatId, message) -> streams.send(chatId, message).<String>handle((chunk, sink) -> {
+			try {
+				objectMapper.writeValueAsBytes(chunk);
+			}
+			catch (JsonProcessingException e) {
+				sink.error(e);
+				return;
+			}
+			if (!chunk.done()) {
+				sink.next(chunk.text());
+			}
+		});
+	}
+
+	// The scripted user message: the stub model calls the tool named in the first line
+	private static String message(int session, int turn) {
+		String bookingNumber = bookingNumber(session);
+		String name = "\"firstName\":\"First%d\",\"lastName\":\"Last%d\"".formatted(session, session);
+		return switch (turn % 4) {
+			case 0 -> """
+					tool:getBookingDetails {"bookingNumber":"%s",%s}
+					What is the status of my booking?""".formatted(bookingNumber, name);
+			case 1 -> """
+					tool:changeBooking {"bookingNumber":"%s",%s,"newDate":"%s","from":"%s","to":"%s"}
+					Can I fly one day later?""".formatted(bookingNumber, name, date(session).plusDays(1),
+					from(session), to(session));
+			case 2 -> """
+					tool:getBookingDetails {"bookingNumber":"%s",%s}
+					Please confirm the new date.""".formatted(bookingNumber, name);
+			default -> """
+					tool:cancelBooking {"bookingNumber":"%s",%s}
+					Actually, please cancel the booking.""".formatted(bookingNumber, name);
+		};
+	}
+
+	// One booking per session, spread over enough flights that changes always find a seat
+	private static BookingData bookings(int count) {
+		List<Customer> customers = new ArrayList<>(count);
+		List<Booking> bookings = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			Customer customer = new Customer("First" + i, "Last" + i);
+			Booking booking = new Booking(bookingNumber(i), date(i), customer, BookingStatus.CONFIRMED, from(i), to(i),
+					"1A", BookingClass.ECONOMY);
+			customer.getBookings().add(booking);
+			customers.add(customer);
+			bookings.add(booking);
+		}
+		BookingData db = new BookingData();
+		db.setCustomers(customers);
+		db.setBookings(bookings);
+		return db;
+	}
+
+	private static String bookingNumber(int session) {
+		return "L" + session;
+	}
+
+	private static LocalDate date(int session) {
+		return LocalDate.now().plusDays(3 + session % DAYS);
+	}
+
+	private static String from(int session) {
+		return AIRPORT_CODES.get(session / DAYS % AIRPORT_CODES.size());
+	}
+
+	// Every session gets a flight of its own for up to DAYS * 13 * 12 sessions
+	private static String to(int session) {
+		int route = session / DAYS;
+		return AIRPORT_CODES.get((route + 1 + route / AIRPORT_CODES.size()) % AIRPORT_CODES.size());
+	}
+
+	// With routing the tools are executed by the routing model, not by the stubs
+	private static ToolCallingManager timed(ToolCallingManager delegate, Timer toolLatency) {
+		return new ToolCallingManager() {
+
+			@Override
+			public List<ToolDefinition> resolveToolDefinitions(ToolCallingChatOptions chatOptions) {
+				return delegate.resolveToolDefinitions(chatOptions);
+			}
+
+			@Override
+			public ToolExecutionResult executeToolCalls(Prompt prompt, ChatResponse chatResponse) {
+				return toolLatency.record(() -> delegate.executeToolCalls(prompt, chatResponse));
+			}
+
+		};
+	}
+
+	private static Timer percentiles(String name, SimpleMeterRegistry registry) {
+		return Timer.builder(name).publishPercentiles(0.5, 0.99).register(registry);
+	}
+
+	private static void report(String label, Timer timer) {
+		StringBuilder line = new StringBuilder(label).append(':');
+		for (ValueAtPercentile p : timer.takeSnapshot().percentileValues()) {
+			line.append(String.format(" p%.0f=%.1fms", p.percentile() * 100, p.value(TimeUnit.MILLISECONDS)));
+		}
+		System.out.println(line.append(String.format(" (n=%d)", timer.count())));
+	}
+
+	private static long usedHeapAfterGc(MemoryMXBean memory) {
+		System.gc();
+		System.gc();
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+
+}
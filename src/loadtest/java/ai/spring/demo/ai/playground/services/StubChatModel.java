@@ -0,0 +1,124 @@
+package ai.spring.demo.ai.playground.services;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.DefaultToolCallingManager;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.model.tool.ToolCallingManager;
+import org.springframework.ai.model.tool.ToolExecutionResult;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Deterministic {@link ChatModel} stand-in for load tests.
+ * <p>
+ * The script is carried by the user message itself: a line {@code tool:<name> <json>}
+ * makes the model answer with a call of that tool and those arguments. Once the tool
+ * result is in the prompt (or if there is no such line) the model streams a fixed
+ * answer of {@code tokens} tokens. The first response of every model round trip is
+ * delayed by {@code firstTokenLatency} and each further token by
+ * {@code interTokenLatency}. Tool calls are executed the same way the real chat models
+ * do it, through a {@link ToolCallingManager} on the bounded elastic scheduler.
+ */
+class StubChatModel implements ChatModel {
+
+	static final String TOOL_DIRECTIVE = "tool:";
+
+	private final ToolCallingManager toolCallingManager = DefaultToolCallingManager.builder().build();
+
+	private final Duration firstTokenLatency;
+
+	private final Duration interTokenLatency;
+
+	private final int tokens;
+
+	private final Timer toolLatency;
+
+	StubChatModel(Duration firstTokenLatency, Duration interTokenLatency, int tokens, Timer toolLatency) {
+		this.firstTokenLatency = firstTokenLatency;
+		this.interTokenLatency = interTokenLatency;
+		this.tokens = tokens;
+		this.toolLatency = toolLatency;
+	}
+
+	@Override
+	public ChatOptions getDefaultOptions() {
+		return ToolCallingChatOptions.builder().build();
+	}
+
+	@Override
+	public ChatResponse call(Prompt prompt) {
+		List<ChatResponse> responses = stream(prompt).collectList().block();
+		StringBuilder text = new StringBuilder();
+		responses.forEach(r -> text.append(r.getResult().getOutput().getText()));
+		return new ChatResponse(List.of(new Generation(new AssistantMessage(text.toString()))));
+	}
+
+	@Override
+	public Flux<ChatResponse> stream(Prompt prompt) {
+		String toolCall = scriptedToolCall(prompt.getInstructions());
+		if (toolCall == null) {
+			return answer();
+		}
+		int space = toolCall.indexOf(' ');
+		var call = new AssistantMessage.ToolCall(UUID.randomUUID().toString(), "function",
+				toolCall.substring(0, space), toolCall.substring(space + 1).strip());
+		var response = new ChatResponse(List.of(new Generation(new AssistantMessage("", Map.of(), List.of(call)))));
+		if (prompt.getOptions() instanceof ToolCallingChatOptions options
+				&& Boolean.FALSE.equals(options.getInternalToolExecutionEnabled())) {
+			// The caller, e.g. the routing model, executes the tools
+			return Flux.just(response).delaySubscription(this.firstTokenLatency);
+		}
+
+		return Flux.just(response).delaySubscription(this.firstTokenLatency).flatMap(r -> Flux.defer(() -> {
+			long start = System.nanoTime();
+			ToolExecutionResult result = this.toolCallingManager.executeToolCalls(prompt, r);
+			this.toolLatency.record(Duration.ofNanos(System.nanoTime() - start));
+			return stream(new Prompt(result.conversationHistory(), prompt.getOptions()));
+		}).subscribeOn(Schedulers.boundedElastic()));
+	}
+
+	private Flux<ChatResponse> answer() {
+		return Flux.range(0, this.tokens)
+			.delayElements(this.interTokenLatency)
+			// delayElements already holds back the first token by one interval
+			.delaySubscription(max(Duration.ZERO, this.firstTokenLatency.minus(this.interTokenLatency)))
+			.map(i -> new ChatResponse(List.of(new Generation(new AssistantMessage(i == 0 ? "token" : " token")))));
+	}
+
+	private static Duration max(Duration a, Duration b) {
+		return a.compareTo(b) >= 0 ? a : b;
+	}
+
+	// The tool to call next, or null when the last user turn has been answered
+	private static String scriptedToolCall(List<Message> instructions) {
+		for (int i = instructions.size() - 1; i >= 0; i--) {
+			Message message = instructions.get(i);
+			if (message.getMessageType() == MessageType.TOOL) {
+				return null;
+			}
+			if (message.getMessageType() == MessageType.USER) {
+				return message.getText()
+					.lines()
+					.filter(line -> line.startsWith(TOOL_DIRECTIVE))
+					.map(line -> line.substring(TOOL_DIRECTIVE.length()))
+					.findFirst()
+					.orElse(null);
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,61 @@
+package ai.spring.demo.ai.playground.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+/**
+ * Deterministic {@link EmbeddingModel} stand-in: a normalized bag of hashed words, so
+ * that equal texts get equal embeddings and similar texts similar ones.
+ */
+class StubEmbeddingModel implements EmbeddingModel {
+
+	private static final int DIMENSIONS = 64;
+
+	@Override
+	public EmbeddingResponse call(EmbeddingRequest request) {
+		List<Embedding> embeddings = new ArrayList<>();
+		for (String text : request.getInstructions()) {
+			embeddings.add(new Embedding(embed(text), embeddings.size()));
+		}
+		return new EmbeddingResponse(embeddings);
+	}
+
+	@Override
+	public float[] embed(Document document) {
+		return embed(document.getText());
+	}
+
+	@Override
+	public float[] embed(String text) {
+		float[] vector = new float[DIMENSIONS];
+		for (String word : text.toLowerCase(Locale.ROOT).split("\\W+")) {
+			if (!word.isEmpty()) {
+				vector[Math.floorMod(word.hashCode(), DIMENSIONS)]++;
+			}
+		}
+		double norm = 0;
+		for (float v : vector) {
+			norm += v * v;
+		}
+		if (norm > 0) {
+			float scale = (float) (1 / Math.sqrt(norm));
+			for (int i = 0; i < DIMENSIONS; i++) {
+				vector[i] *= scale;
+			}
+		}
+		return vector;
+	}
+
+	@Override
+	public int dimensions() {
+		return DIMENSIONS;
+	}
+
+}
@@ -0,0 +1,70 @@
+package ai.spring.demo.ai.playground.services;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+/**
+ * In-memory {@link VectorStore} stand-in for load tests. Brute-force cosine similarity
+ * over the stub embeddings; metadata filters are not supported.
+ */
+class StubVectorStore implements VectorStore {
+
+	private final EmbeddingModel embeddingModel;
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+	StubVectorStore(EmbeddingModel embeddingModel) {
+		this.embeddingModel = embeddingModel;
+	}
+
+	@Override
+	public void add(List<Document> documents) {
+		for (Document document : documents) {
+			this.entries.put(document.getId(), new Entry(document, this.embeddingModel.embed(document)));
+		}
+	}
+
+	@Override
+	public void delete(List<String> idList) {
+		idList.forEach(this.entries::remove);
+	}
+
+	@Override
+	public void delete(Filter.Expression filterExpression) {
+		throw new UnsupportedOperationException("Filters are not supported by the stub vector store");
+	}
+
+	@Override
+	public List<Document> similaritySearch(SearchRequest request) {
+		float[] query = this.embeddingModel.embed(request.getQuery());
+		return this.entries.values()
+			.stream()
+			.map(e -> Map.entry(e.document(), similarity(query, e.embedding())))
+			.filter(e -> e.getValue() >= request.getSimilarityThreshold())
+			.sorted(Map.Entry.<Document, Double>comparingByValue(Comparator.reverseOrder()))
+			.limit(request.getTopK())
+			.map(e -> e.getKey().mutate().score(e.getValue()).build())
+			.toList();
+	}
+
+	// Both vectors are normalized
+	private static double similarity(float[] a, float[] b) {
+		double dot = 0;
+		for (int i = 0; i < a.length; i++) {
+			dot += a[i] * b[i];
+		}
+		return dot;
+	}
+
+	private record Entry(Document document, float[] embedding) {
+	}
+
+}
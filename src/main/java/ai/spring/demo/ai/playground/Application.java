@@ -1,23 +1,53 @@
 package ai.spring.demo.ai.playground;
 
+import ai.spring.demo.ai.playground.chat.BoundedChatMemoryRepository;
+import ai.spring.demo.ai.playground.chat.ParallelToolCallingManager;
+import ai.spring.demo.ai.playground.chat.RoutingChatModel;
+import ai.spring.demo.ai.playground.chat.StreamMetrics;
+import ai.spring.demo.ai.playground.chat.WindowedChatMemory;
+import ai.spring.demo.ai.playground.observation.ContentCaptureHandler;
+import ai.spring.demo.ai.playground.observation.TailSamplingSpanHandler;
+import ai.spring.demo.ai.playground.rag.DocumentIngestionService;
+import ai.spring.demo.ai.playground.rag.InProcessVectorStore;
+import ai.spring.demo.ai.playground.rag.MemoizingEmbeddingModel;
 import com.vaadin.flow.component.page.Push;
+import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.memory.ChatMemory;
-import org.springframework.ai.chat.memory.MessageWindowChatMemory;
-import org.springframework.ai.reader.TextReader;
-import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.model.tool.ToolCallingManager;
+import org.springframework.ai.tool.execution.ToolExecutionExceptionProcessor;
+import org.springframework.ai.tool.resolution.ToolCallbackResolver;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.builder.SpringApplicationBuilder;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
 import org.springframework.core.io.Resource;
 import org.springframework.http.server.observation.ServerRequestObservationContext;
+import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
 
 import com.vaadin.flow.component.page.AppShellConfigurator;
 import com.vaadin.flow.theme.Theme;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 import io.micrometer.observation.ObservationPredicate;
+import io.micrometer.observation.ObservationRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zipkin2.reporter.brave.AsyncZipkinSpanHandler;
 
 @SpringBootApplication
 @Theme(value = "customer-support-agent")
@@ -28,21 +58,51 @@ public class Application implements AppShellConfigurator {
 		new SpringApplicationBuilder(Application.class).run(args);
 	}
 
-	// Ingest the document into the vector store
+	// Ingest the document into the vector store. Runs in the background and only embeds
+	// chunks that changed since the last run.
 	@Bean
-	CommandLineRunner ingestTermOfServiceToVectorStore(VectorStore vectorStore,
+	CommandLineRunner ingestTermOfServiceToVectorStore(DocumentIngestionService ingestionService,
 			@Value("classpath:rag/terms-of-service.txt") Resource termsOfServiceDocs) {
 
-		// @formatter:off
-		return args -> vectorStore.write(
-						new TokenTextSplitter().transform(
-								new TextReader(termsOfServiceDocs).read()));
-		// @formatter:on
+		return args -> ingestionService.ingestAsync(termsOfServiceDocs);
+	}
+
+	// Conversation history bounded in total size, evicted when idle and optionally
+	// summarized instead of truncated when it outgrows the window.
+	@Bean
+	public ChatMemory chatMemory(ChatModel chatModel, MeterRegistry meterRegistry,
+			@Value("${chat.memory.max-messages:20}") int maxMessages,
+			@Value("${chat.memory.max-total-size:64MB}") DataSize maxTotalSize,
+			@Value("${chat.memory.idle-ttl:30m}") Duration idleTtl,
+			@Value("${chat.memory.summarize:false}") boolean summarize) {
+		var repository = new BoundedChatMemoryRepository(maxTotalSize, idleTtl, meterRegistry);
+		return new WindowedChatMemory(repository, maxMessages, summarize ? ChatClient.create(chatModel) : null);
+	}
+
+	// Runs the tool calls of a model response concurrently on virtual threads. Replaces
+	// the auto-configured manager used by the chat model.
+	@Bean
+	@ConditionalOnProperty(name = "chat.tools.parallel.enabled", havingValue = "true", matchIfMissing = true)
+	public ToolCallingManager toolCallingManager(ToolCallbackResolver toolCallbackResolver,
+			ToolExecutionExceptionProcessor toolExecutionExceptionProcessor,
+			ObjectProvider<ObservationRegistry> observationRegistry,
+			@Value("${chat.tools.parallel.timeout:30s}") Duration timeout,
+			@Value("${chat.tools.parallel.serialized-tools:changeBooking,cancelBooking}") Set<String> serializedTools,
+			@Value("${chat.tools.parallel.serialize-by:bookingNumber}") String serializeBy,
+			StreamMetrics streamMetrics) {
+		return streamMetrics.timed(new ParallelToolCallingManager(toolCallbackResolver, toolExecutionExceptionProcessor,
+				observationRegistry.getIfUnique(() -> ObservationRegistry.NOOP), timeout, serializedTools, serializeBy));
 	}
 
+	// Routes each request to the healthiest of the configured chat models and hedges
+	// slow ones. Primary, so the chat client and chat memory go through it.
 	@Bean
-	public ChatMemory chatMemory() {
-		return MessageWindowChatMemory.builder().build();
+	@Primary
+	@ConditionalOnProperty(name = "chat.routing.enabled", havingValue = "true")
+	public RoutingChatModel routingChatModel(Map<String, ChatModel> chatModels, ToolCallingManager toolCallingManager,
+			MeterRegistry meterRegistry, @Value("${chat.routing.hedge-after:3s}") Duration hedgeAfter,
+			@Value("${chat.routing.ewma-alpha:0.2}") double alpha) {
+		return new RoutingChatModel(chatModels, toolCallingManager, hedgeAfter, alpha, meterRegistry);
 	}
 
 	// Optional suppress the actuator server observations. This hides the actuator
@@ -63,10 +123,71 @@ public class Application implements AppShellConfigurator {
 		};
 	}
 
-	// @Bean
-	// @ConditionalOnMissingBean
-	// public VectorStore vectorStore(EmbeddingModel embeddingModel) {
-	// return new SimpleVectorStore(embeddingModel);
-	// }
+	// In-process vector store for small corpora. Select it with
+	// spring.ai.vectorstore.type=in-process, which also turns off the Chroma
+	// auto-configuration.
+	@Bean
+	@ConditionalOnProperty(name = "spring.ai.vectorstore.type", havingValue = "in-process")
+	public VectorStore vectorStore(EmbeddingModel embeddingModel, ObjectProvider<ObservationRegistry> observationRegistry,
+			@Value("${rag.vectorstore.in-process.directory:}") String directory) {
+		return InProcessVectorStore.builder(embeddingModel)
+			.directory(StringUtils.hasText(directory) ? Path.of(directory) : null)
+			.observationRegistry(observationRegistry.getIfUnique(() -> ObservationRegistry.NOOP))
+			.build();
+	}
+
+	// The retrieval cache and the vector store both embed the query of a cache miss.
+	// Wrapping the embedding model shared by both makes the second call a lookup.
+	@Bean
+	@ConditionalOnProperty(name = "rag.cache.enabled", havingValue = "true", matchIfMissing = true)
+	static BeanPostProcessor memoizingEmbeddingModel(@Value("${rag.cache.embeddings.max-size:1000}") long maxSize,
+			@Value("${rag.cache.embeddings.ttl:5m}") Duration ttl) {
+		return new BeanPostProcessor() {
+
+			@Override
+			public Object postProcessAfterInitialization(Object bean, String beanName) {
+				if (bean instanceof EmbeddingModel embeddingModel && !(bean instanceof MemoizingEmbeddingModel)) {
+					return new MemoizingEmbeddingModel(embeddingModel, maxSize, ttl);
+				}
+				return bean;
+			}
+
+		};
+	}
+
+	// Keeps slow and failed traces and a budget of the others. Wraps the Zipkin exporter,
+	// so every span is still recorded but only the kept traces are sent.
+	@Bean
+	@ConditionalOnProperty(name = "tracing.tail-sampling.enabled", havingValue = "true")
+	static BeanPostProcessor tailSamplingSpanHandler(
+			@Value("${tracing.tail-sampling.latency-threshold:5s}") Duration latencyThreshold,
+			@Value("${tracing.tail-sampling.max-traces-per-second:5}") double maxTracesPerSecond,
+			@Value("${tracing.tail-sampling.max-pending-traces:10000}") int maxPendingTraces,
+			@Value("${tracing.tail-sampling.max-spans-per-trace:1000}") int maxSpansPerTrace,
+			@Value("${tracing.tail-sampling.trace-timeout:2m}") Duration traceTimeout) {
+		return new BeanPostProcessor() {
+
+			@Override
+			public Object postProcessAfterInitialization(Object bean, String beanName) {
+				if (bean instanceof AsyncZipkinSpanHandler exporter) {
+					return new TailSamplingSpanHandler(exporter, latencyThreshold, maxTracesPerSecond,
+							maxPendingTraces, maxSpansPerTrace, traceTimeout, Metrics.globalRegistry);
+				}
+				return bean;
+			}
+
+		};
+	}
+
+	// Logs prompts, completions and tool calls from a background thread instead of the
+	// Spring AI content options, which do it on the request thread.
+	@Bean
+	@ConditionalOnProperty(name = "observation.content-capture.enabled", havingValue = "true")
+	public ContentCaptureHandler contentCaptureHandler(MeterRegistry meterRegistry,
+			@Value("${observation.content-capture.queue-size:1000}") int queueSize,
+			@Value("${observation.content-capture.max-chars:2000}") int maxChars) {
+		Logger logger = LoggerFactory.getLogger(ContentCaptureHandler.class);
+		return new ContentCaptureHandler(queueSize, maxChars, logger::info, meterRegistry);
+	}
 
 }
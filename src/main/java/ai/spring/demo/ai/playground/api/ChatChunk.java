@@ -0,0 +1,26 @@
+package ai.spring.demo.ai.playground.api;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import org.springframework.lang.Nullable;
+
+/**
+ * One element of a streamed reply.
+ * @param offset position of the chunk in the reply, starting at 0; resuming at an offset
+ * returns the chunks from that one on
+ * @param text the text of the chunk, {@code null} for the last one
+ * @param done {@code true} for the last chunk, which follows the text of the reply
+ * @param error why the reply ended early, {@code null} unless it failed
+ */
+@JsonInclude(Include.NON_NULL)
+public record ChatChunk(long offset, @Nullable String text, boolean done, @Nullable String error) {
+
+	static ChatChunk text(long offset, String text) {
+		return new ChatChunk(offset, text, false, null);
+	}
+
+	static ChatChunk done(long offset, @Nullable String error) {
+		return new ChatChunk(offset, null, true, error);
+	}
+
+}
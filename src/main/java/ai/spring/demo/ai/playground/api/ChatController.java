@@ -0,0 +1,111 @@
+package ai.spring.demo.ai.playground.api;
+
+import java.util.NoSuchElementException;
+import java.util.regex.Pattern;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.lang.Nullable;
+import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+
+/**
+ * Streaming chat API for clients without the Vaadin UI, e.g. mobile apps.
+ * <p>
+ * {@code POST /api/chat/{chatId}} with {@code {"message": "..."}} streams the reply as
+ * {@link ChatChunk}s, in server-sent events ({@code Accept: text/event-stream}) or as
+ * newline delimited JSON ({@code Accept: application/x-ndjson}). The client chooses the
+ * conversation id and keeps using it for the following messages. Every chunk carries its
+ * offset, also the SSE event id; after a lost connection {@code GET /api/chat/{chatId}/reply?offset=n}, or
+ * an EventSource reconnecting with {@code Last-Event-ID}, resumes the reply where it
+ * stopped. {@code DELETE /api/chat/{chatId}} ends the conversation.
+ * <p>
+ * A reply nobody reads any more is cancelled after the resume window, see
+ * {@link ChatStreams}.
+ */
+@RestController
+@RequestMapping("/api/chat")
+public class ChatController {
+
+	private static final Pattern CHAT_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+	private final ChatStreams chatStreams;
+
+	public ChatController(ChatStreams chatStreams) {
+		this.chatStreams = chatStreams;
+	}
+
+	@PostMapping(path = "/{chatId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public Flux<ServerSentEvent<ChatChunk>> sendEvents(@PathVariable String chatId, @RequestBody ChatRequest request) {
+		return send(chatId, request).map(ChatController::event);
+	}
+
+	@PostMapping(path = "/{chatId}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	public Flux<ChatChunk> send(@PathVariable String chatId, @RequestBody ChatRequest request) {
+		checkChatId(chatId);
+		if (!StringUtils.hasText(request.message())) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The message must not be empty");
+		}
+		try {
+			return this.chatStreams.send(chatId, request.message());
+		}
+		catch (IllegalStateException e) {
+			throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
+		}
+	}
+
+	@GetMapping(path = "/{chatId}/reply", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public Flux<ServerSentEvent<ChatChunk>> resumeEvents(@PathVariable String chatId,
+			@RequestParam(defaultValue = "0") long offset,
+			@RequestHeader(name = "Last-Event-ID", required = false) @Nullable Long lastEventId) {
+		return resume(chatId, lastEventId != null ? lastEventId + 1 : offset).map(ChatController::event);
+	}
+
+	@GetMapping(path = "/{chatId}/reply", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	public Flux<ChatChunk> resume(@PathVariable String chatId, @RequestParam(defaultValue = "0") long offset) {
+		checkChatId(chatId);
+		try {
+			return this.chatStreams.resume(chatId, offset);
+		}
+		catch (NoSuchElementException e) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+		}
+	}
+
+	@DeleteMapping("/{chatId}")
+	public ResponseEntity<Void> end(@PathVariable String chatId) {
+		checkChatId(chatId);
+		this.chatStreams.end(chatId);
+		return ResponseEntity.noContent().build();
+	}
+
+	private static void checkChatId(String chatId) {
+		if (!CHAT_ID.matcher(chatId).matches()) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+					"The chat id must be 1 to 64 letters, digits, '-' or '_'");
+		}
+	}
+
+	// The data is the chunk as JSON rather than the bare text: SSE clients drop a leading
+	// space of the data, and tokens often start with one
+	private static ServerSentEvent<ChatChunk> event(ChatChunk chunk) {
+		String type = !chunk.done() ? "token" : chunk.error() != null ? "error" : "done";
+		return ServerSentEvent.builder(chunk).id(Long.toString(chunk.offset())).event(type).build();
+	}
+
+	public record ChatRequest(String message) {
+	}
+
+}
@@ -0,0 +1,168 @@
+package ai.spring.demo.ai.playground.api;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ai.spring.demo.ai.playground.services.CustomerSupportAssistant;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.ConnectableFlux;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Replies of {@link CustomerSupportAssistant} for HTTP clients, which may lose their
+ * connection in the middle of a reply.
+ * <p>
+ * The latest reply of every conversation is generated independently of the requests
+ * reading it and its chunks are kept, so a client can reconnect and resume the reply at
+ * the offset of the first chunk it did not get. When no client has been reading for the
+ * resume window, a reply still being generated is cancelled, which ends the model call
+ * and releases its admission. A finished reply can be resumed for the resume window as
+ * well. Only one reply per conversation is generated at a time.
+ */
+@Component
+public class ChatStreams {
+
+	private final CustomerSupportAssistant assistant;
+
+	private final Duration resumeWindow;
+
+	private final Map<String, Reply> replies = new ConcurrentHashMap<>();
+
+	public ChatStreams(CustomerSupportAssistant assistant,
+			@Value("${chat.api.resume-window:30s}") Duration resumeWindow) {
+		this.assistant = assistant;
+		this.resumeWindow = resumeWindow;
+	}
+
+	/**
+	 * Starts the reply to a user message and returns its chunks.
+	 * @param chatId the conversation, chosen by the client
+	 * @param message the user message
+	 * @throws IllegalStateException if a reply of the conversation is still being
+	 * generated
+	 */
+	public Flux<ChatChunk> send(String chatId, String message) {
+		var reply = new Reply(chatId, this.assistant.chat(chatId, message));
+		this.replies.compute(chatId, (id, current) -> {
+			if (current != null && current.isActive()) {
+				throw new IllegalStateException("The previous reply of conversation " + chatId + " is still streaming");
+			}
+			return reply;
+		});
+		reply.start();
+		return reply.read(0);
+	}
+
+	/**
+	 * Resumes the latest reply of a conversation.
+	 * @param offset the offset of the first chunk to return
+	 * @throws NoSuchElementException if there is no reply to resume, because none was
+	 * started or it expired
+	 */
+	public Flux<ChatChunk> resume(String chatId, long offset) {
+		Reply reply = this.replies.get(chatId);
+		if (reply == null || reply.isCancelled()) {
+			throw new NoSuchElementException("No reply to resume for conversation " + chatId);
+		}
+		return reply.read(offset);
+	}
+
+	/**
+	 * Cancels the reply being generated, if any, and forgets the conversation.
+	 */
+	public void end(String chatId) {
+		Reply reply = this.replies.remove(chatId);
+		if (reply != null) {
+			reply.cancel();
+		}
+		this.assistant.endConversation(chatId);
+	}
+
+	private final class Reply {
+
+		private final String chatId;
+
+		private final AtomicLong offsets = new AtomicLong();
+
+		private final AtomicInteger readers = new AtomicInteger();
+
+		private final ConnectableFlux<ChatChunk> chunks;
+
+		private volatile Disposable generation;
+
+		// When the last reader went away, in System.nanoTime()
+		private volatile long lastDisconnect;
+
+		private volatile boolean done;
+
+		private volatile boolean cancelled;
+
+		Reply(String chatId, Flux<String> tokens) {
+			this.chatId = chatId;
+			this.chunks = tokens.map(text -> ChatChunk.text(this.offsets.getAndIncrement(), text))
+				.concatWith(Flux.defer(() -> Flux.just(ChatChunk.done(this.offsets.get(), null))))
+				.onErrorResume(e -> Flux.just(ChatChunk.done(this.offsets.get(), "The reply failed")))
+				.doOnTerminate(this::finished)
+				.replay();
+		}
+
+		void start() {
+			this.generation = this.chunks.connect();
+		}
+
+		// Readers get the chunks generated so far, then the live ones
+		Flux<ChatChunk> read(long offset) {
+			return this.chunks.filter(chunk -> chunk.offset() >= offset)
+				.doOnSubscribe(subscription -> this.readers.incrementAndGet())
+				.doFinally(signal -> {
+					this.lastDisconnect = System.nanoTime();
+					if (this.readers.decrementAndGet() == 0 && !this.done) {
+						Schedulers.parallel().schedule(this::cancelIfAbandoned, resumeWindow.toMillis(),
+								TimeUnit.MILLISECONDS);
+					}
+				});
+		}
+
+		boolean isActive() {
+			return !this.done && !this.cancelled;
+		}
+
+		boolean isCancelled() {
+			return this.cancelled;
+		}
+
+		// A timer of an earlier disconnect finds a later one and leaves it to its own timer
+		private void cancelIfAbandoned() {
+			long idle = System.nanoTime() - this.lastDisconnect;
+			boolean expired = idle >= TimeUnit.MILLISECONDS.toNanos(resumeWindow.toMillis());
+			if (this.readers.get() == 0 && !this.done && expired) {
+				replies.remove(this.chatId, this);
+				cancel();
+			}
+		}
+
+		void cancel() {
+			this.cancelled = true;
+			Disposable generation = this.generation;
+			if (generation != null) {
+				generation.dispose();
+			}
+		}
+
+		private void finished() {
+			this.done = true;
+			Schedulers.parallel()
+				.schedule(() -> replies.remove(this.chatId, this), resumeWindow.toMillis(), TimeUnit.MILLISECONDS);
+		}
+
+	}
+
+}
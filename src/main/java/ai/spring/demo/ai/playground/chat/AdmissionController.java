@@ -0,0 +1,368 @@
+package ai.spring.demo.ai.playground.chat;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+/**
+ * Admission control in front of the chat streams.
+ * <p>
+ * At most {@code limit} streams run at the same time. The limit adapts to the latency of
+ * the model (additive increase, multiplicative decrease): every stream whose first token
+ * arrives within the target latency raises it by about one per limit streams, and a
+ * stream that is slower or fails (e.g. with a 429 from the provider) lowers it by the
+ * backoff factor. Streams admitted before the last decrease cannot lower it again, so one
+ * overload episode, seen by all streams running at the time, costs one backoff step. So
+ * when the provider slows down, fewer streams are started and the ones running keep a
+ * good latency, instead of all users getting slow together.
+ * <p>
+ * Requests over the limit wait in a bounded queue, first come first served, with
+ * sessions already in a conversation served before new ones. A session can have one
+ * request waiting at a time, further ones are rejected as already queued. A request is
+ * rejected straight away if the queue is full, and after the maximum wait if it is still
+ * queued by then. Each session also has a token bucket limiting how many messages it can
+ * send in a burst and in the long run.
+ */
+@Component
+public class AdmissionController {
+
+	private static final String BUSY = "We are receiving a lot of requests right now. Please try again in a moment.";
+
+	private static final String ALREADY_QUEUED = "Your previous message is still waiting to be answered. "
+			+ "Please wait for the answer before sending the next one.";
+
+	private static final String RATE_LIMITED = "You are sending messages faster than we can answer them. "
+			+ "Please wait a moment before sending the next one.";
+
+	private final double minLimit;
+
+	private final double maxLimit;
+
+	private final double backoff;
+
+	private final long targetLatencyNanos;
+
+	private final int maxQueueSize;
+
+	private final Duration maxQueueWait;
+
+	private final int sessionBurst;
+
+	private final long sessionRefillNanos;
+
+	private final Deque<Waiter> continuing = new ArrayDeque<>();
+
+	private final Deque<Waiter> starting = new ArrayDeque<>();
+
+	private final Set<String> queuedSessions = new HashSet<>();
+
+	private final Cache<String, TokenBucket> buckets = Caffeine.newBuilder()
+		.maximumSize(100_000)
+		.expireAfterAccess(Duration.ofHours(1))
+		.build();
+
+	private final MeterRegistry meterRegistry;
+
+	private final Timer queueWait;
+
+	private final AtomicInteger continuingQueued = new AtomicInteger();
+
+	private final AtomicInteger startingQueued = new AtomicInteger();
+
+	// Guarded by this
+	private double limit;
+
+	private int inFlight;
+
+	// Number of decreases so far; permits remember it to lower the limit once per window
+	private int decreases;
+
+	public AdmissionController(MeterRegistry meterRegistry,
+			@Value("${chat.admission.initial-limit:20}") int initialLimit,
+			@Value("${chat.admission.min-limit:2}") int minLimit,
+			@Value("${chat.admission.max-limit:200}") int maxLimit,
+			@Value("${chat.admission.backoff:0.8}") double backoff,
+			@Value("${chat.admission.target-first-token-latency:5s}") Duration targetLatency,
+			@Value("${chat.admission.max-queue-size:100}") int maxQueueSize,
+			@Value("${chat.admission.max-queue-wait:15s}") Duration maxQueueWait,
+			@Value("${chat.admission.session.burst:5}") int sessionBurst,
+			@Value("${chat.admission.session.refill-interval:5s}") Duration sessionRefillInterval) {
+		this.limit = initialLimit;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.backoff = backoff;
+		this.targetLatencyNanos = targetLatency.toNanos();
+		this.maxQueueSize = maxQueueSize;
+		this.maxQueueWait = maxQueueWait;
+		this.sessionBurst = sessionBurst;
+		this.sessionRefillNanos = sessionRefillInterval.toNanos();
+		this.meterRegistry = meterRegistry;
+		this.queueWait = Timer.builder("chat.admission.queue.wait")
+			.description("Time chat requests waited for a free slot")
+			.register(meterRegistry);
+		Gauge.builder("chat.admission.limit", this, AdmissionController::limit)
+			.description("Current number of chat streams allowed to run at the same time")
+			.register(meterRegistry);
+		Gauge.builder("chat.admission.in.flight", this, AdmissionController::inFlight)
+			.description("Chat streams running")
+			.register(meterRegistry);
+		Gauge.builder("chat.admission.queue.depth", this.continuingQueued, AtomicInteger::get)
+			.description("Chat requests waiting for a free slot")
+			.tag("session", "continuing")
+			.register(meterRegistry);
+		Gauge.builder("chat.admission.queue.depth", this.startingQueued, AtomicInteger::get)
+			.description("Chat requests waiting for a free slot")
+			.tag("session", "new")
+			.register(meterRegistry);
+	}
+
+	/**
+	 * Runs the stream once it is admitted.
+	 * @param sessionId the chat session, for the rate limit and the queue
+	 * @param continuing whether the session is already in a conversation
+	 * @param stream creates the stream to run; it holds a slot until it terminates or is
+	 * cancelled
+	 * @return the stream, or an {@link AdmissionRejectedException} if it is not admitted
+	 */
+	public <T> Flux<T> admit(String sessionId, boolean continuing, Supplier<Flux<T>> stream) {
+		return Flux.usingWhen(acquire(sessionId, continuing), permit -> stream.get().doOnNext(t -> permit.answered()),
+				permit -> Mono.fromRunnable(() -> release(permit, false)),
+				(permit, error) -> Mono.fromRunnable(() -> release(permit, true)),
+				permit -> Mono.fromRunnable(() -> release(permit, false)));
+	}
+
+	private Mono<Permit> acquire(String sessionId, boolean continuing) {
+		return Mono.create(sink -> {
+			if (!this.buckets.get(sessionId, id -> new TokenBucket()).tryTake()) {
+				sink.error(reject("rate-limited", RATE_LIMITED));
+				return;
+			}
+			Waiter waiter = null;
+			boolean alreadyQueued = false;
+			synchronized (this) {
+				if (this.inFlight < (int) this.limit && this.continuing.isEmpty() && this.starting.isEmpty()) {
+					this.inFlight++;
+					sink.success(new Permit(this.decreases));
+					return;
+				}
+				if (this.queuedSessions.contains(sessionId)) {
+					alreadyQueued = true;
+				}
+				else if (this.continuing.size() + this.starting.size() < this.maxQueueSize) {
+					this.queuedSessions.add(sessionId);
+					waiter = new Waiter(sessionId, continuing, sink);
+					(continuing ? this.continuing : this.starting).addLast(waiter);
+					queued(waiter, 1);
+				}
+			}
+			if (alreadyQueued) {
+				sink.error(reject("already-queued", ALREADY_QUEUED));
+				return;
+			}
+			if (waiter == null) {
+				sink.error(reject("queue-full", BUSY));
+				return;
+			}
+			sink.onCancel(waiter::cancel);
+			waiter.timer = Mono.delay(this.maxQueueWait).subscribe(t -> {
+				if (waiter.abandon()) {
+					sink.error(reject("queue-timeout", BUSY));
+				}
+			});
+		});
+	}
+
+	private void release(Permit permit, boolean failed) {
+		if (!permit.released.compareAndSet(false, true)) {
+			return;
+		}
+		List<Waiter> admitted = new ArrayList<>();
+		synchronized (this) {
+			this.inFlight--;
+			long latency = permit.latencyNanos();
+			if (failed || latency > this.targetLatencyNanos) {
+				// Streams admitted before the last decrease saw the same overload
+				if (permit.window == this.decreases) {
+					this.limit = Math.max(this.minLimit, this.limit * this.backoff);
+					this.decreases++;
+				}
+			}
+			else if (latency >= 0) {
+				this.limit = Math.min(this.maxLimit, this.limit + 1 / this.limit);
+			}
+			while (this.inFlight < (int) this.limit) {
+				Waiter next = this.continuing.isEmpty() ? this.starting.pollFirst() : this.continuing.pollFirst();
+				if (next == null) {
+					break;
+				}
+				this.queuedSessions.remove(next.sessionId);
+				queued(next, -1);
+				next.permit = new Permit(this.decreases);
+				if (next.state.compareAndSet(Waiter.WAITING, Waiter.ADMITTED)) {
+					this.inFlight++;
+					admitted.add(next);
+				}
+			}
+		}
+		for (Waiter waiter : admitted) {
+			waiter.admit();
+		}
+	}
+
+	private void queued(Waiter waiter, int delta) {
+		(waiter.continuing ? this.continuingQueued : this.startingQueued).addAndGet(delta);
+	}
+
+	private AdmissionRejectedException reject(String reason, String message) {
+		Counter.builder("chat.admission.rejected")
+			.description("Chat requests not admitted")
+			.tag("reason", reason)
+			.register(this.meterRegistry)
+			.increment();
+		return new AdmissionRejectedException(reason, message);
+	}
+
+	private synchronized double limit() {
+		return this.limit;
+	}
+
+	private synchronized int inFlight() {
+		return this.inFlight;
+	}
+
+	private final class Permit {
+
+		private final long start = System.nanoTime();
+
+		// The number of limit decreases when the permit was handed out
+		private final int window;
+
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		private volatile long firstAnswer;
+
+		Permit(int window) {
+			this.window = window;
+		}
+
+		void answered() {
+			if (this.firstAnswer == 0) {
+				this.firstAnswer = System.nanoTime();
+			}
+		}
+
+		// Time to the first element, or -1 if the stream ended without one
+		long latencyNanos() {
+			long first = this.firstAnswer;
+			return first != 0 ? first - this.start : -1;
+		}
+
+	}
+
+	private final class Waiter {
+
+		static final int WAITING = 0;
+
+		static final int ADMITTED = 1;
+
+		static final int ABANDONED = 2;
+
+		private final String sessionId;
+
+		private final boolean continuing;
+
+		private final MonoSink<Permit> sink;
+
+		private final AtomicInteger state = new AtomicInteger(WAITING);
+
+		private final Timer.Sample sample;
+
+		private volatile Disposable timer;
+
+		// Set before the state changes to admitted
+		private volatile Permit permit;
+
+		Waiter(String sessionId, boolean continuing, MonoSink<Permit> sink) {
+			this.sessionId = sessionId;
+			this.continuing = continuing;
+			this.sink = sink;
+			this.sample = Timer.start(meterRegistry);
+		}
+
+		void admit() {
+			this.sample.stop(queueWait);
+			disposeTimer();
+			this.sink.success(this.permit);
+		}
+
+		void cancel() {
+			if (!abandon()) {
+				// Cancelled right after being admitted: the permit may never reach the stream
+				release(this.permit, false);
+			}
+		}
+
+		// Leaves the queue; false if it was admitted in the meantime
+		boolean abandon() {
+			if (!this.state.compareAndSet(WAITING, ABANDONED)) {
+				return false;
+			}
+			synchronized (AdmissionController.this) {
+				if ((this.continuing ? AdmissionController.this.continuing : starting).remove(this)) {
+					queuedSessions.remove(this.sessionId);
+					queued(this, -1);
+				}
+			}
+			disposeTimer();
+			return true;
+		}
+
+		private void disposeTimer() {
+			Disposable t = this.timer;
+			if (t != null) {
+				t.dispose();
+			}
+		}
+
+	}
+
+	private final class TokenBucket {
+
+		private double tokens = sessionBurst;
+
+		private long refilled = System.nanoTime();
+
+		synchronized boolean tryTake() {
+			long now = System.nanoTime();
+			this.tokens = Math.min(sessionBurst, this.tokens + (double) (now - this.refilled) / sessionRefillNanos);
+			this.refilled = now;
+			if (this.tokens < 1) {
+				return false;
+			}
+			this.tokens--;
+			return true;
+		}
+
+	}
+
+}
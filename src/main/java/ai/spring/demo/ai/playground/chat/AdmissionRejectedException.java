@@ -0,0 +1,24 @@
+package ai.spring.demo.ai.playground.chat;
+
+/**
+ * A chat request was not admitted by the {@link AdmissionController}. The message is meant
+ * for the user.
+ */
+public class AdmissionRejectedException extends RuntimeException {
+
+	private final String reason;
+
+	public AdmissionRejectedException(String reason, String message) {
+		super(message);
+		this.reason = reason;
+	}
+
+	/**
+	 * @return why the request was rejected: {@code rate-limited}, {@code already-queued},
+	 * {@code queue-full} or {@code queue-timeout}
+	 */
+	public String getReason() {
+		return this.reason;
+	}
+
+}
@@ -0,0 +1,124 @@
+package ai.spring.demo.ai.playground.chat;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * {@link ChatMemoryRepository} with a global size limit.
+ * <p>
+ * Conversations are kept in a compact binary form (one type byte plus the UTF-8 text per
+ * message) and weighed by their encoded size. When the total exceeds the limit the least
+ * valuable conversations are evicted, and conversations that have not been touched for
+ * the idle TTL expire. Only the message type and text are kept, which is all the memory
+ * advisor replays; tool call details and message metadata are dropped.
+ */
+public class BoundedChatMemoryRepository implements ChatMemoryRepository {
+
+	private final Cache<String, byte[]> conversations;
+
+	private final DistributionSummary conversationSize;
+
+	public BoundedChatMemoryRepository(DataSize maxTotalSize, Duration idleTtl, MeterRegistry meterRegistry) {
+		this.conversations = Caffeine.newBuilder()
+			.maximumWeight(maxTotalSize.toBytes())
+			.weigher((String id, byte[] encoded) -> encoded.length)
+			.expireAfterAccess(idleTtl)
+			.removalListener((String id, byte[] encoded, RemovalCause cause) -> {
+				if (cause.wasEvicted()) {
+					meterRegistry.counter("chat.memory.evictions", "cause", cause.name().toLowerCase(Locale.ROOT)).increment();
+				}
+			})
+			.build();
+		this.conversationSize = DistributionSummary.builder("chat.memory.conversation.size")
+			.description("Encoded size of a conversation when it is saved")
+			.baseUnit("bytes")
+			.register(meterRegistry);
+		Gauge.builder("chat.memory.conversations", this.conversations, Cache::estimatedSize)
+			.description("Conversations held in chat memory")
+			.register(meterRegistry);
+		Gauge.builder("chat.memory.size", this.conversations,
+				c -> c.policy().eviction().flatMap(e -> e.weightedSize()).orElse(0L))
+			.description("Encoded size of all conversations held in chat memory")
+			.baseUnit("bytes")
+			.register(meterRegistry);
+	}
+
+	@Override
+	public List<String> findConversationIds() {
+		return List.copyOf(this.conversations.asMap().keySet());
+	}
+
+	@Override
+	public List<Message> findByConversationId(String conversationId) {
+		byte[] encoded = this.conversations.getIfPresent(conversationId);
+		return encoded != null ? decode(encoded) : List.of();
+	}
+
+	@Override
+	public void saveAll(String conversationId, List<Message> messages) {
+		byte[] encoded = encode(messages);
+		this.conversationSize.record(encoded.length);
+		this.conversations.put(conversationId, encoded);
+	}
+
+	@Override
+	public void deleteByConversationId(String conversationId) {
+		this.conversations.invalidate(conversationId);
+	}
+
+	// -----------------------------
+	// Compact form
+	// -----------------------------
+
+	static byte[] encode(List<Message> messages) {
+		List<byte[]> texts = new ArrayList<>(messages.size());
+		int size = 0;
+		for (Message message : messages) {
+			byte[] text = message.getText() != null ? message.getText().getBytes(StandardCharsets.UTF_8) : new byte[0];
+			texts.add(text);
+			size += 1 + Integer.BYTES + text.length;
+		}
+		ByteBuffer out = ByteBuffer.allocate(size);
+		for (int i = 0; i < messages.size(); i++) {
+			out.put((byte) messages.get(i).getMessageType().ordinal()).putInt(texts.get(i).length).put(texts.get(i));
+		}
+		return out.array();
+	}
+
+	static List<Message> decode(byte[] encoded) {
+		ByteBuffer in = ByteBuffer.wrap(encoded);
+		List<Message> messages = new ArrayList<>();
+		while (in.hasRemaining()) {
+			MessageType type = MessageType.values()[in.get()];
+			byte[] bytes = new byte[in.getInt()];
+			in.get(bytes);
+			String text = new String(bytes, StandardCharsets.UTF_8);
+			messages.add(switch (type) {
+				case USER -> new UserMessage(text);
+				case SYSTEM -> new SystemMessage(text);
+				// Tool responses are never stored by the memory advisor; keep them readable anyway
+				case ASSISTANT, TOOL -> new AssistantMessage(text);
+			});
+		}
+		return messages;
+	}
+
+}
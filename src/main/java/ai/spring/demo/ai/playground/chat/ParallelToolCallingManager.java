@@ -0,0 +1,297 @@
+package ai.spring.demo.ai.playground.chat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import ai.spring.demo.ai.playground.data.BookingData;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.DefaultToolCallingManager;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.model.tool.ToolCallingManager;
+import org.springframework.ai.model.tool.ToolExecutionResult;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.execution.ToolExecutionException;
+import org.springframework.ai.tool.execution.ToolExecutionExceptionProcessor;
+import org.springframework.ai.tool.observation.DefaultToolCallingObservationConvention;
+import org.springframework.ai.tool.observation.ToolCallingObservationContext;
+import org.springframework.ai.tool.observation.ToolCallingObservationDocumentation;
+import org.springframework.ai.tool.resolution.ToolCallbackResolver;
+import org.springframework.lang.Nullable;
+
+/**
+ * {@link ToolCallingManager} running the tool calls of one model response concurrently.
+ * <p>
+ * Every call runs on its own virtual thread, so a turn takes as long as its slowest tool
+ * instead of the sum of all of them. Calls of the configured mutating tools that target
+ * the same booking number are the exception: within a response they run one after the
+ * other in the order the model emitted them, and across conversations they are
+ * serialized by a per-booking lock. A call that does not finish within the timeout is
+ * reported to the model as failed; if it was still waiting for the lock, it never runs.
+ * Results are returned in the order of the calls, whatever order they completed in.
+ */
+public class ParallelToolCallingManager implements ToolCallingManager {
+
+	private static final Logger logger = LoggerFactory.getLogger(ParallelToolCallingManager.class);
+
+	private static final int LOCK_STRIPES = 64;
+
+	private static final DefaultToolCallingObservationConvention OBSERVATION_CONVENTION =
+			new DefaultToolCallingObservationConvention();
+
+	private final ToolCallingManager delegate;
+
+	private final ToolCallbackResolver toolCallbackResolver;
+
+	private final ToolExecutionExceptionProcessor exceptionProcessor;
+
+	private final ObservationRegistry observationRegistry;
+
+	private final Duration timeout;
+
+	private final Set<String> serializedTools;
+
+	private final String serializationArgument;
+
+	private final Lock[] locks = new Lock[LOCK_STRIPES];
+
+	private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	/**
+	 * @param toolCallbackResolver resolves tools referenced by name only
+	 * @param exceptionProcessor turns tool failures into results for the model
+	 * @param observationRegistry registry for the tool call observations
+	 * @param timeout maximum time a single tool call may take
+	 * @param serializedTools names of the tools that must not run concurrently for the
+	 * same booking
+	 * @param serializationArgument the tool argument holding the booking number
+	 */
+	public ParallelToolCallingManager(ToolCallbackResolver toolCallbackResolver,
+			ToolExecutionExceptionProcessor exceptionProcessor, ObservationRegistry observationRegistry,
+			Duration timeout, Set<String> serializedTools, String serializationArgument) {
+		this.delegate = DefaultToolCallingManager.builder()
+			.toolCallbackResolver(toolCallbackResolver)
+			.toolExecutionExceptionProcessor(exceptionProcessor)
+			.observationRegistry(observationRegistry)
+			.build();
+		this.toolCallbackResolver = toolCallbackResolver;
+		this.exceptionProcessor = exceptionProcessor;
+		this.observationRegistry = observationRegistry;
+		this.timeout = timeout;
+		this.serializedTools = serializedTools;
+		this.serializationArgument = serializationArgument;
+		for (int i = 0; i < LOCK_STRIPES; i++) {
+			this.locks[i] = new ReentrantLock();
+		}
+	}
+
+	@Override
+	public List<ToolDefinition> resolveToolDefinitions(ToolCallingChatOptions chatOptions) {
+		return this.delegate.resolveToolDefinitions(chatOptions);
+	}
+
+	@Override
+	public ToolExecutionResult executeToolCalls(Prompt prompt, ChatResponse chatResponse) {
+		AssistantMessage assistantMessage = chatResponse.getResults()
+			.stream()
+			.map(Generation::getOutput)
+			.filter(AssistantMessage::hasToolCalls)
+			.findFirst()
+			.orElseThrow(() -> new IllegalStateException("No tool call requested by the chat model"));
+		List<AssistantMessage.ToolCall> toolCalls = assistantMessage.getToolCalls();
+		ToolContext toolContext = toolContext(prompt, assistantMessage);
+		List<ToolCallback> callbacks = toolCalls.stream()
+			.map(call -> resolve(call.name(), prompt.getOptions()))
+			.toList();
+
+		// Calls sharing a serialization key form one chain; all other calls are chains of one
+		Map<String, List<Integer>> chains = new LinkedHashMap<>();
+		for (int i = 0; i < toolCalls.size(); i++) {
+			String key = serializationKey(toolCalls.get(i));
+			chains.computeIfAbsent(key != null ? key : "#" + i, k -> new ArrayList<>()).add(i);
+		}
+
+		String[] results = new String[toolCalls.size()];
+		Observation parent = this.observationRegistry.getCurrentObservation();
+		List<Future<?>> running = new ArrayList<>(chains.size());
+		for (List<Integer> chain : chains.values()) {
+			running.add(this.executor.submit(() -> {
+				for (int i : chain) {
+					results[i] = callWithTimeout(callbacks.get(i), toolCalls.get(i), toolContext, parent);
+				}
+			}));
+		}
+		for (Future<?> chain : running) {
+			await(chain);
+		}
+
+		List<ToolResponseMessage.ToolResponse> responses = new ArrayList<>(toolCalls.size());
+		for (int i = 0; i < toolCalls.size(); i++) {
+			AssistantMessage.ToolCall call = toolCalls.get(i);
+			responses.add(new ToolResponseMessage.ToolResponse(call.id(), call.name(), results[i]));
+		}
+		List<Message> history = new ArrayList<>(prompt.copy().getInstructions());
+		history.add(assistantMessage);
+		history.add(new ToolResponseMessage(responses, Map.of()));
+		boolean returnDirect = callbacks.stream().allMatch(c -> c.getToolMetadata().returnDirect());
+		return ToolExecutionResult.builder().conversationHistory(history).returnDirect(returnDirect).build();
+	}
+
+	private String callWithTimeout(ToolCallback callback, AssistantMessage.ToolCall call,
+			@Nullable ToolContext toolContext, @Nullable Observation parent) {
+		String key = serializationKey(call);
+		long deadline = System.nanoTime() + this.timeout.toNanos();
+		Future<String> result = this.executor.submit(() -> {
+			if (key == null) {
+				return call(callback, call, toolContext, parent);
+			}
+			// Once the caller has given up, the call must not run any more: it would change
+			// the booking after the model was told the outcome is unknown. Waiting is also
+			// interrupted when the timed out future is cancelled.
+			Lock lock = this.locks[Math.floorMod(key.hashCode(), LOCK_STRIPES)];
+			if (!lock.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+				return "The tool " + call.name()
+						+ " did not run because an earlier call for the same booking is still running.";
+			}
+			try {
+				return call(callback, call, toolContext, parent);
+			}
+			finally {
+				lock.unlock();
+			}
+		});
+		try {
+			return result.get(this.timeout.toMillis(), TimeUnit.MILLISECONDS);
+		}
+		catch (TimeoutException e) {
+			// A timed out call keeps its lock until it returns, so later calls for the same
+			// booking still wait for it, up to their own deadline
+			result.cancel(true);
+			logger.warn("Tool {} did not complete within {}", call.name(), this.timeout);
+			return "The tool " + call.name() + " did not complete in time; its outcome is unknown.";
+		}
+		catch (ExecutionException e) {
+			throw e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for tool " + call.name(), e);
+		}
+	}
+
+	private String call(ToolCallback callback, AssistantMessage.ToolCall call, @Nullable ToolContext toolContext,
+			@Nullable Observation parent) {
+		String arguments = call.arguments() == null || call.arguments().isBlank() ? "{}" : call.arguments();
+		var observationContext = ToolCallingObservationContext.builder()
+			.toolDefinition(callback.getToolDefinition())
+			.toolMetadata(callback.getToolMetadata())
+			.toolCallArguments(arguments)
+			.build();
+		return ToolCallingObservationDocumentation.TOOL_CALL
+			.observation(null, OBSERVATION_CONVENTION, () -> observationContext, this.observationRegistry)
+			.parentObservation(parent)
+			.observe(() -> {
+				String result;
+				try {
+					result = callback.call(arguments, toolContext);
+				}
+				catch (ToolExecutionException e) {
+					result = this.exceptionProcessor.process(e);
+				}
+				observationContext.setToolCallResult(result);
+				return result;
+			});
+	}
+
+	private ToolCallback resolve(String name, @Nullable ChatOptions options) {
+		if (options instanceof ToolCallingChatOptions toolOptions) {
+			for (ToolCallback callback : toolOptions.getToolCallbacks()) {
+				if (callback.getToolDefinition().name().equals(name)) {
+					return callback;
+				}
+			}
+		}
+		ToolCallback callback = this.toolCallbackResolver.resolve(name);
+		if (callback == null) {
+			throw new IllegalStateException("No ToolCallback found for tool name: " + name);
+		}
+		return callback;
+	}
+
+	// Same as DefaultToolCallingManager: the history is only added to a non-empty context
+	@Nullable
+	private static ToolContext toolContext(Prompt prompt, AssistantMessage assistantMessage) {
+		if (!(prompt.getOptions() instanceof ToolCallingChatOptions options) || options.getToolContext() == null
+				|| options.getToolContext().isEmpty()) {
+			return null;
+		}
+		Map<String, Object> context = new HashMap<>(options.getToolContext());
+		List<Message> history = new ArrayList<>(prompt.copy().getInstructions());
+		history.add(assistantMessage);
+		context.put(ToolContext.TOOL_CALL_HISTORY, history);
+		return new ToolContext(context);
+	}
+
+	@Nullable
+	private String serializationKey(AssistantMessage.ToolCall call) {
+		if (!this.serializedTools.contains(call.name())) {
+			return null;
+		}
+		try {
+			JsonNode value = this.objectMapper.readTree(call.arguments()).get(this.serializationArgument);
+			return value != null && value.isTextual() ? BookingData.normalizeBookingNumber(value.asText()) : null;
+		}
+		catch (Exception e) {
+			// Malformed arguments fail in the tool itself
+			return null;
+		}
+	}
+
+	private static void await(Future<?> future) {
+		try {
+			future.get();
+		}
+		catch (ExecutionException e) {
+			throw e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for tool calls", e);
+		}
+	}
+
+	@PreDestroy
+	void shutdown() {
+		this.executor.shutdownNow();
+	}
+
+}
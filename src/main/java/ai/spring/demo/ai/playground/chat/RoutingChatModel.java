@@ -0,0 +1,279 @@
+package ai.spring.demo.ai.playground.chat;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.model.tool.ToolCallingManager;
+import org.springframework.ai.model.tool.ToolExecutionResult;
+import org.springframework.util.Assert;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * {@link ChatModel} spreading requests over several providers.
+ * <p>
+ * For every provider an exponentially weighted moving average of the time to the first
+ * response and of the error rate is kept, and each request goes to the provider with the
+ * best score. If it has not answered after the hedge delay, the next best provider is
+ * asked as well, and so on; the first one to answer wins and the others are cancelled.
+ * A provider that fails before answering hands over to the next one at once, without
+ * waiting for the hedge delay. Failures count at least the hedge delay in the latency
+ * average, so a provider that fails fast (e.g. rate limited) does not look fast. A stream
+ * that fails after it started is not retried, since the user already saw part of the
+ * answer.
+ * <p>
+ * Tool calls are executed here, once, after a provider has won: the providers are asked
+ * with internal tool execution turned off, so racing two of them never runs a tool twice.
+ * Chat memory lives in the advisors in front of this model, so a conversation keeps its
+ * history whichever provider answers a turn.
+ */
+public class RoutingChatModel implements ChatModel {
+
+	private static final Logger logger = LoggerFactory.getLogger(RoutingChatModel.class);
+
+	private final List<Provider> providers;
+
+	private final ToolCallingManager toolCallingManager;
+
+	private final Duration hedgeDelay;
+
+	private final double alpha;
+
+	private final Counter hedges;
+
+	/**
+	 * @param chatModels the providers by name
+	 * @param toolCallingManager executes the tool calls requested by the providers
+	 * @param hedgeDelay time to wait for a first response before asking the next provider
+	 * @param alpha weight of the latest sample in the moving averages
+	 * @param meterRegistry registry for the per-provider health metrics
+	 */
+	public RoutingChatModel(Map<String, ChatModel> chatModels, ToolCallingManager toolCallingManager,
+			Duration hedgeDelay, double alpha, MeterRegistry meterRegistry) {
+		Assert.notEmpty(chatModels, "At least one chat model is required");
+		this.providers = chatModels.entrySet()
+			.stream()
+			.map(e -> new Provider(e.getKey(), e.getValue(), meterRegistry))
+			.toList();
+		this.toolCallingManager = toolCallingManager;
+		this.hedgeDelay = hedgeDelay;
+		this.alpha = alpha;
+		this.hedges = Counter.builder("chat.routing.hedges")
+			.description("Requests sent to another provider because the first was slow or failed")
+			.register(meterRegistry);
+	}
+
+	@Override
+	public ChatOptions getDefaultOptions() {
+		return ToolCallingChatOptions.builder().build();
+	}
+
+	@Override
+	public ChatResponse call(Prompt prompt) {
+		ChatResponse response = null;
+		RuntimeException failure = null;
+		for (Provider provider : ranked()) {
+			long start = System.nanoTime();
+			try {
+				response = provider.model.call(forProvider(prompt));
+				provider.success(System.nanoTime() - start);
+				break;
+			}
+			catch (RuntimeException e) {
+				provider.failure(System.nanoTime() - start);
+				logger.warn("Chat model {} failed, trying the next one", provider.name, e);
+				failure = e;
+			}
+		}
+		if (response == null) {
+			throw failure;
+		}
+		if (!executesTools(prompt) || !response.hasToolCalls()) {
+			return response;
+		}
+		ToolExecutionResult result = this.toolCallingManager.executeToolCalls(prompt, response);
+		if (result.returnDirect()) {
+			return ChatResponse.builder()
+				.from(response)
+				.generations(ToolExecutionResult.buildGenerations(result))
+				.build();
+		}
+		return call(new Prompt(result.conversationHistory(), prompt.getOptions()));
+	}
+
+	@Override
+	public Flux<ChatResponse> stream(Prompt prompt) {
+		return race(forProvider(prompt)).flatMap(response -> {
+			if (!executesTools(prompt) || !response.hasToolCalls()) {
+				return Flux.just(response);
+			}
+			return Flux.defer(() -> {
+				ToolExecutionResult result = this.toolCallingManager.executeToolCalls(prompt, response);
+				if (result.returnDirect()) {
+					return Flux.just(ChatResponse.builder()
+						.from(response)
+						.generations(ToolExecutionResult.buildGenerations(result))
+						.build());
+				}
+				return stream(new Prompt(result.conversationHistory(), prompt.getOptions()));
+			}).subscribeOn(Schedulers.boundedElastic());
+		});
+	}
+
+	private Flux<ChatResponse> race(Prompt prompt) {
+		return Flux.defer(() -> hedged(ranked(), 0, prompt, new AtomicBoolean()));
+	}
+
+	// Races the provider at the index against the ones ranked after it. These are started
+	// after the hedge delay, or right away if the provider fails without having answered.
+	// The flag is set by the first provider to answer, before the others are cancelled.
+	private Flux<ChatResponse> hedged(List<Provider> ranked, int index, Prompt prompt, AtomicBoolean won) {
+		Flux<ChatResponse> attempt = observed(ranked.get(index), prompt, won);
+		if (index == ranked.size() - 1) {
+			return attempt;
+		}
+		Sinks.Empty<Void> failed = Sinks.empty();
+		Flux<ChatResponse> next = Mono.firstWithSignal(Mono.delay(this.hedgeDelay).then(), failed.asMono())
+			.doOnSuccess(v -> this.hedges.increment())
+			.thenMany(Flux.defer(() -> hedged(ranked, index + 1, prompt, won)));
+		return Flux.firstWithValue(attempt.doOnError(e -> failed.tryEmitEmpty()), next);
+	}
+
+	// A provider cancelled before answering only lost the race if another one answered;
+	// otherwise the client gave up, which says nothing about the provider.
+	private Flux<ChatResponse> observed(Provider provider, Prompt prompt, AtomicBoolean won) {
+		return Flux.defer(() -> {
+			long start = System.nanoTime();
+			var answered = new AtomicBoolean();
+			return provider.model.stream(prompt).doOnNext(response -> {
+				if (answered.compareAndSet(false, true)) {
+					won.set(true);
+					provider.success(System.nanoTime() - start);
+				}
+			}).doOnError(e -> {
+				if (answered.compareAndSet(false, true)) {
+					provider.failure(System.nanoTime() - start);
+					logger.warn("Chat model {} failed", provider.name, e);
+				}
+			}).doOnCancel(() -> {
+				if (answered.compareAndSet(false, true) && won.get()) {
+					provider.outrun(System.nanoTime() - start);
+				}
+			});
+		});
+	}
+
+	private List<Provider> ranked() {
+		return this.providers.stream().sorted(Comparator.comparingDouble(Provider::score)).toList();
+	}
+
+	private static boolean executesTools(Prompt prompt) {
+		return !(prompt.getOptions() instanceof ToolCallingChatOptions options)
+				|| !Boolean.FALSE.equals(options.getInternalToolExecutionEnabled());
+	}
+
+	private static Prompt forProvider(Prompt prompt) {
+		if (!(prompt.getOptions() instanceof ToolCallingChatOptions options)) {
+			return prompt;
+		}
+		ToolCallingChatOptions copy = options.copy();
+		copy.setInternalToolExecutionEnabled(false);
+		return new Prompt(prompt.getInstructions(), copy);
+	}
+
+	private final class Provider {
+
+		private final String name;
+
+		private final ChatModel model;
+
+		private final Counter successes;
+
+		private final Counter failures;
+
+		private long samples;
+
+		// Untried providers score best, so each gets a chance early on
+		private double latencyMillis;
+
+		private double errorRate;
+
+		Provider(String name, ChatModel model, MeterRegistry meterRegistry) {
+			this.name = name;
+			this.model = model;
+			this.successes = meterRegistry.counter("chat.routing.requests", "provider", name, "outcome", "success");
+			this.failures = meterRegistry.counter("chat.routing.requests", "provider", name, "outcome", "error");
+			Gauge.builder("chat.routing.provider.latency", this, Provider::latency)
+				.description("Moving average of the time to the first response")
+				.tag("provider", name)
+				.baseUnit("milliseconds")
+				.register(meterRegistry);
+			Gauge.builder("chat.routing.provider.error.rate", this, Provider::errors)
+				.description("Moving average of the share of failed requests")
+				.tag("provider", name)
+				.register(meterRegistry);
+		}
+
+		void success(long nanos) {
+			record(nanos, 0);
+			this.successes.increment();
+		}
+
+		// Counts at least the hedge delay: a fast failure is no fast answer
+		void failure(long nanos) {
+			record(Math.max(nanos, hedgeDelay.toNanos()), 1);
+			this.failures.increment();
+		}
+
+		// Lost a race: no answer yet, but at least this slow
+		synchronized void outrun(long nanos) {
+			this.latencyMillis = Math.max(this.latencyMillis, average(this.latencyMillis, nanos / 1e6));
+		}
+
+		// Expected time to a usable answer: a provider failing half of the time is treated
+		// as twice as slow
+		synchronized double score() {
+			return this.latencyMillis / Math.max(0.05, 1 - this.errorRate);
+		}
+
+		synchronized double latency() {
+			return this.latencyMillis;
+		}
+
+		synchronized double errors() {
+			return this.errorRate;
+		}
+
+		private synchronized void record(long nanos, double error) {
+			if (this.samples++ == 0) {
+				this.latencyMillis = nanos / 1e6;
+				this.errorRate = error;
+			}
+			else {
+				this.latencyMillis = average(this.latencyMillis, nanos / 1e6);
+				this.errorRate = average(this.errorRate, error);
+			}
+		}
+
+		private double average(double current, double sample) {
+			return alpha * sample + (1 - alpha) * current;
+		}
+
+	}
+
+}
@@ -0,0 +1,187 @@
+package ai.spring.demo.ai.playground.chat;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.Advisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.model.tool.ToolCallingManager;
+import org.springframework.ai.model.tool.ToolExecutionResult;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+/**
+ * Latency of the chat as the user sees it: time to the first token, the gaps between
+ * tokens and the resulting tokens per second of a streamed answer, plus the time spent
+ * in the advisors before the model is called and in tool calls between model requests.
+ * <p>
+ * Each stream allocates one small state object; recording a token only reads the clock
+ * and updates a histogram, so nothing is allocated per token.
+ */
+@Component
+public class StreamMetrics {
+
+	private static final String START = StreamMetrics.class.getName() + ".start";
+
+	private final Timer timeToFirstToken;
+
+	private final Timer interTokenGap;
+
+	private final DistributionSummary tokensPerSecond;
+
+	private final Timer advisors;
+
+	private final Timer toolRoundTrip;
+
+	public StreamMetrics(MeterRegistry meterRegistry) {
+		this.timeToFirstToken = Timer.builder("chat.stream.time.to.first.token")
+			.description("Time from the user message to the first token of the answer")
+			.register(meterRegistry);
+		this.interTokenGap = Timer.builder("chat.stream.inter.token.gap")
+			.description("Time between two tokens of an answer")
+			.register(meterRegistry);
+		this.tokensPerSecond = DistributionSummary.builder("chat.stream.tokens.per.second")
+			.description("Tokens per second of an answer after its first token")
+			.baseUnit("tokens")
+			.register(meterRegistry);
+		this.advisors = Timer.builder("chat.stream.advisors")
+			.description("Time spent in the advisors (chat memory, RAG) before the model is called")
+			.register(meterRegistry);
+		this.toolRoundTrip = Timer.builder("chat.stream.tool.round.trip")
+			.description("Time to execute the tool calls of one model response")
+			.register(meterRegistry);
+	}
+
+	/**
+	 * Records the token timings of the stream, per subscription. Empty chunks are not
+	 * counted as tokens.
+	 */
+	public Flux<String> instrument(Flux<String> stream) {
+		return Flux.defer(() -> {
+			var tokens = new TokenTimings();
+			return stream.doOnNext(tokens::onToken).doOnComplete(tokens::onComplete);
+		});
+	}
+
+	/**
+	 * Advisors to add around the other advisors: the first starts the clock, the second,
+	 * placed after chat memory and RAG, records the time elapsed.
+	 */
+	public List<Advisor> advisors() {
+		return List.of(new AdvisorTimer(true), new AdvisorTimer(false));
+	}
+
+	/**
+	 * Decorates the tool calling manager to record the tool round trips.
+	 */
+	public ToolCallingManager timed(ToolCallingManager delegate) {
+		return new ToolCallingManager() {
+
+			@Override
+			public List<ToolDefinition> resolveToolDefinitions(ToolCallingChatOptions chatOptions) {
+				return delegate.resolveToolDefinitions(chatOptions);
+			}
+
+			@Override
+			public ToolExecutionResult executeToolCalls(Prompt prompt, ChatResponse chatResponse) {
+				long start = System.nanoTime();
+				try {
+					return delegate.executeToolCalls(prompt, chatResponse);
+				}
+				finally {
+					toolRoundTrip.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+				}
+			}
+
+		};
+	}
+
+	private final class TokenTimings {
+
+		private final long start = System.nanoTime();
+
+		private long first;
+
+		private long last;
+
+		private int count;
+
+		// Reactor signals onNext serially, so no synchronization is needed
+		void onToken(String token) {
+			if (token.isEmpty()) {
+				return;
+			}
+			long now = System.nanoTime();
+			if (this.count++ == 0) {
+				this.first = now;
+				timeToFirstToken.record(now - this.start, TimeUnit.NANOSECONDS);
+			}
+			else {
+				interTokenGap.record(now - this.last, TimeUnit.NANOSECONDS);
+			}
+			this.last = now;
+		}
+
+		void onComplete() {
+			if (this.count > 1 && this.last > this.first) {
+				tokensPerSecond.record((this.count - 1) * 1e9 / (this.last - this.first));
+			}
+		}
+
+	}
+
+	private final class AdvisorTimer implements CallAdvisor, StreamAdvisor {
+
+		private final boolean start;
+
+		AdvisorTimer(boolean start) {
+			this.start = start;
+		}
+
+		@Override
+		public String getName() {
+			return this.start ? "AdvisorTimerStart" : "AdvisorTimerStop";
+		}
+
+		@Override
+		public int getOrder() {
+			// Stop before the token budget advisor, which runs right before the model
+			return this.start ? Ordered.HIGHEST_PRECEDENCE : Ordered.LOWEST_PRECEDENCE - 2;
+		}
+
+		@Override
+		public ChatClientResponse adviseCall(ChatClientRequest request, CallAdvisorChain chain) {
+			return chain.nextCall(apply(request));
+		}
+
+		@Override
+		public Flux<ChatClientResponse> adviseStream(ChatClientRequest request, StreamAdvisorChain chain) {
+			return chain.nextStream(apply(request));
+		}
+
+		private ChatClientRequest apply(ChatClientRequest request) {
+			if (this.start) {
+				return request.mutate().context(START, System.nanoTime()).build();
+			}
+			if (request.context().get(START) instanceof Long started) {
+				advisors.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+			}
+			return request;
+		}
+
+	}
+
+}
@@ -0,0 +1,260 @@
+package ai.spring.demo.ai.playground.chat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
+import org.springframework.ai.chat.client.advisor.vectorstore.QuestionAnswerAdvisor;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+/**
+ * Last advisor before the model: lays the prompt out for provider prompt caching, keeps
+ * it within a token budget and reports how many input tokens the provider served from
+ * its cache.
+ * <p>
+ * The memory advisor puts the conversation history in front of the system prompt, which
+ * means the longest stable part of the prompt, the system prompt, is not a prefix and
+ * cannot be cached by the provider. This advisor moves the system messages to the front
+ * (the system prompt first, then the running summary of the conversation, which changes
+ * more often), followed by the history and the current user message.
+ * <p>
+ * If the estimated prompt is larger than the budget, the oldest history messages are
+ * dropped. Trimming goes down to a fraction of the budget rather than just below it, and
+ * the following turns of the conversation start their history at the same message, so
+ * they share the same prefix until the budget is exceeded again instead of every turn
+ * shifting it by one message. The system prompt and the question of the current user
+ * message are never trimmed. If the prompt is still over the budget, the RAG context
+ * added to the user message is cut down to what is left, leaving out the least relevant
+ * documents first.
+ */
+@Component
+public class TokenBudgetAdvisor implements CallAdvisor, StreamAdvisor {
+
+	// Role and framing overhead per message, roughly as counted by the providers
+	private static final int MESSAGE_OVERHEAD_TOKENS = 4;
+
+	private final TokenCountEstimator estimator = new JTokkitTokenCountEstimator();
+
+	private final int maxInputTokens;
+
+	private final double trimTo;
+
+	private final Counter trimmedMessages;
+
+	private final Counter trimmedDocuments;
+
+	private final DistributionSummary cachedInputTokens;
+
+	private final DistributionSummary uncachedInputTokens;
+
+	// Per conversation, the first history message kept after the last trim
+	private final Cache<Object, Integer> cuts = Caffeine.newBuilder()
+		.maximumSize(10_000)
+		.expireAfterAccess(Duration.ofHours(1))
+		.build();
+
+	public TokenBudgetAdvisor(MeterRegistry meterRegistry,
+			@Value("${chat.prompt.max-input-tokens:8000}") int maxInputTokens,
+			@Value("${chat.prompt.trim-to:0.6}") double trimTo) {
+		this.maxInputTokens = maxInputTokens;
+		this.trimTo = trimTo;
+		this.trimmedMessages = Counter.builder("chat.prompt.trimmed.messages")
+			.description("History messages left out of prompts to stay within the token budget")
+			.register(meterRegistry);
+		this.trimmedDocuments = Counter.builder("chat.prompt.trimmed.documents")
+			.description("RAG documents left out of prompts to stay within the token budget")
+			.register(meterRegistry);
+		this.cachedInputTokens = DistributionSummary.builder("chat.prompt.input.tokens")
+			.description("Input tokens per model request")
+			.tag("cached", "true")
+			.baseUnit("tokens")
+			.register(meterRegistry);
+		this.uncachedInputTokens = DistributionSummary.builder("chat.prompt.input.tokens")
+			.description("Input tokens per model request")
+			.tag("cached", "false")
+			.baseUnit("tokens")
+			.register(meterRegistry);
+	}
+
+	@Override
+	public String getName() {
+		return "TokenBudgetAdvisor";
+	}
+
+	@Override
+	public int getOrder() {
+		// After the memory and RAG advisors, right before the model is called
+		return Ordered.LOWEST_PRECEDENCE - 1;
+	}
+
+	@Override
+	public ChatClientResponse adviseCall(ChatClientRequest request, CallAdvisorChain chain) {
+		ChatClientResponse response = chain.nextCall(apply(request));
+		recordUsage(response);
+		return response;
+	}
+
+	@Override
+	public Flux<ChatClientResponse> adviseStream(ChatClientRequest request, StreamAdvisorChain chain) {
+		return chain.nextStream(apply(request)).doOnNext(this::recordUsage);
+	}
+
+	// Streams report the usage once, on the last chunk (with stream-usage enabled)
+	private void recordUsage(ChatClientResponse response) {
+		if (response.chatResponse() == null || response.chatResponse().getMetadata() == null) {
+			return;
+		}
+		Usage usage = response.chatResponse().getMetadata().getUsage();
+		if (usage == null || usage.getPromptTokens() == null || usage.getPromptTokens() == 0) {
+			return;
+		}
+		long cached = cachedPromptTokens(usage);
+		this.cachedInputTokens.record(cached);
+		this.uncachedInputTokens.record(usage.getPromptTokens() - cached);
+	}
+
+	// Only OpenAI reports cached tokens in this setup; other providers count as uncached
+	private static long cachedPromptTokens(Usage usage) {
+		if (usage.getNativeUsage() instanceof OpenAiApi.Usage openAiUsage && openAiUsage.promptTokensDetails() != null
+				&& openAiUsage.promptTokensDetails().cachedTokens() != null) {
+			return openAiUsage.promptTokensDetails().cachedTokens();
+		}
+		return 0;
+	}
+
+	private ChatClientRequest apply(ChatClientRequest request) {
+		List<Message> messages = request.prompt().getInstructions();
+		if (messages.isEmpty()) {
+			return request;
+		}
+		List<Message> system = new ArrayList<>();
+		List<Message> summaries = new ArrayList<>();
+		List<Message> history = new ArrayList<>();
+		Message current = messages.get(messages.size() - 1);
+		for (Message message : messages.subList(0, messages.size() - 1)) {
+			if (message.getMessageType() != MessageType.SYSTEM) {
+				history.add(message);
+			}
+			else if (message.getText().startsWith(WindowedChatMemory.SUMMARY_PREFIX)) {
+				summaries.add(message);
+			}
+			else {
+				system.add(message);
+			}
+		}
+
+		// Resume from where the history was cut last time, so the prefix stays the same
+		Object conversationId = request.context().get(ChatMemory.CONVERSATION_ID);
+		Integer cut = conversationId != null ? this.cuts.getIfPresent(conversationId) : null;
+		int dropped = 0;
+		if (cut != null) {
+			int start = 0;
+			while (start < history.size() && fingerprint(history.get(start)) != cut) {
+				start++;
+			}
+			if (start < history.size()) {
+				history.subList(0, start).clear();
+				dropped += start;
+			}
+		}
+
+		int fixed = estimate(system) + estimate(summaries) + estimate(current);
+		int historyTokens = estimate(history);
+		if (fixed + historyTokens > this.maxInputTokens) {
+			int target = (int) (this.maxInputTokens * this.trimTo) - fixed;
+			// Never start the history with an orphaned answer
+			while (!history.isEmpty()
+					&& (historyTokens > target || history.get(0).getMessageType() != MessageType.USER)) {
+				historyTokens -= estimate(history.remove(0));
+				dropped++;
+			}
+			if (conversationId != null && !history.isEmpty()) {
+				this.cuts.put(conversationId, fingerprint(history.get(0)));
+			}
+		}
+		this.trimmedMessages.increment(dropped);
+		int overflow = fixed + historyTokens - this.maxInputTokens;
+		if (overflow > 0) {
+			current = trimContext(request, current, overflow);
+		}
+
+		List<Message> laidOut = new ArrayList<>(messages.size());
+		laidOut.addAll(system);
+		laidOut.addAll(summaries);
+		laidOut.addAll(history);
+		laidOut.add(current);
+		return request.mutate().prompt(new Prompt(laidOut, request.prompt().getOptions())).build();
+	}
+
+	// The question answer advisor joins the texts of the retrieved documents, most relevant
+	// first, into the user message. Drops documents from the end of that block until the
+	// overflow is made up; a message not laid out that way is left as it is.
+	private Message trimContext(ChatClientRequest request, Message current, int overflow) {
+		if (!(current instanceof UserMessage user) || user.getText() == null
+				|| !(request.context().get(QuestionAnswerAdvisor.RETRIEVED_DOCUMENTS) instanceof List<?> retrieved)) {
+			return current;
+		}
+		List<String> texts = retrieved.stream()
+			.filter(Document.class::isInstance)
+			.map(document -> String.valueOf(((Document) document).getText()))
+			.toList();
+		String context = String.join(System.lineSeparator(), texts);
+		int start = context.isEmpty() ? -1 : user.getText().indexOf(context);
+		if (start < 0) {
+			return current;
+		}
+		int keep = texts.size();
+		int saved = 0;
+		while (keep > 0 && saved < overflow) {
+			keep--;
+			saved += this.estimator.estimate(texts.get(keep));
+		}
+		this.trimmedDocuments.increment(texts.size() - keep);
+		String text = user.getText();
+		String trimmed = text.substring(0, start) + String.join(System.lineSeparator(), texts.subList(0, keep))
+				+ text.substring(start + context.length());
+		return UserMessage.builder().text(trimmed).media(user.getMedia()).metadata(user.getMetadata()).build();
+	}
+
+	private static int fingerprint(Message message) {
+		return Objects.hash(message.getMessageType(), message.getText());
+	}
+
+	private int estimate(List<Message> messages) {
+		int tokens = 0;
+		for (Message message : messages) {
+			tokens += estimate(message);
+		}
+		return tokens;
+	}
+
+	private int estimate(Message message) {
+		return MESSAGE_OVERHEAD_TOKENS + (message.getText() != null ? this.estimator.estimate(message.getText()) : 0);
+	}
+
+}
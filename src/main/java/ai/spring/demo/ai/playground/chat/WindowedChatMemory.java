@@ -0,0 +1,225 @@
+package ai.spring.demo.ai.playground.chat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.lang.Nullable;
+
+/**
+ * {@link ChatMemory} keeping a window of the most recent messages per conversation.
+ * <p>
+ * Without a summarizer this behaves like {@code MessageWindowChatMemory}: the oldest
+ * messages fall out of the window. With a summarizer the messages leaving the window
+ * are folded into a single running summary, kept as the first message of the
+ * conversation, so the model still knows about e.g. booking numbers mentioned early on
+ * without the full history being replayed on every turn.
+ * <p>
+ * Summarizing is a model call, so it is done rarely and off the request path, on a
+ * virtual thread: once over the window, the conversation is summarized down to half of
+ * it, which leaves room for several more turns before the next summary. Messages added
+ * while the summary is being written are kept and may briefly exceed the window. After
+ * a failed summary no new ones are started for a while, from one second doubling up to
+ * five minutes, and conversations are only cut back to the window once they reach twice
+ * its size.
+ */
+public class WindowedChatMemory implements ChatMemory {
+
+	static final String SUMMARY_PREFIX = "Summary of the earlier conversation: ";
+
+	private static final Logger logger = LoggerFactory.getLogger(WindowedChatMemory.class);
+
+	private static final int LOCK_STRIPES = 64;
+
+	private static final Duration MIN_BACKOFF = Duration.ofSeconds(1);
+
+	private static final Duration MAX_BACKOFF = Duration.ofMinutes(5);
+
+	private final ChatMemoryRepository repository;
+
+	private final int maxMessages;
+
+	@Nullable
+	private final ChatClient summarizer;
+
+	private final Lock[] locks = new Lock[LOCK_STRIPES];
+
+	// Conversations with a summary being written, so that only one is written at a time
+	private final Set<String> summarizing = ConcurrentHashMap.newKeySet();
+
+	private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+	// Summaries failed in a row, and the System.nanoTime() before which none are started
+	private final AtomicInteger failures = new AtomicInteger();
+
+	private volatile long retryAt;
+
+	/**
+	 * @param repository where conversations are stored
+	 * @param maxMessages the window size
+	 * @param summarizer client used to summarize messages leaving the window, or
+	 * {@code null} to simply drop them
+	 */
+	public WindowedChatMemory(ChatMemoryRepository repository, int maxMessages, @Nullable ChatClient summarizer) {
+		this.repository = repository;
+		this.maxMessages = maxMessages;
+		this.summarizer = summarizer;
+		for (int i = 0; i < LOCK_STRIPES; i++) {
+			this.locks[i] = new ReentrantLock();
+		}
+	}
+
+	@Override
+	public void add(String conversationId, List<Message> messages) {
+		List<Message> evicted = null;
+		Lock lock = lockFor(conversationId);
+		lock.lock();
+		try {
+			List<Message> all = new ArrayList<>(this.repository.findByConversationId(conversationId));
+			all.addAll(messages);
+			if (all.size() > this.maxMessages) {
+				if (this.summarizer == null) {
+					all = new ArrayList<>(all.subList(all.size() - this.maxMessages, all.size()));
+				}
+				else if (!backingOff() && this.summarizing.add(conversationId)) {
+					// Half of the window stays, one slot of it taken by the summary itself
+					int keep = Math.max(1, this.maxMessages / 2 - 1);
+					evicted = List.copyOf(all.subList(0, all.size() - keep));
+				}
+				else if (all.size() > 2 * this.maxMessages) {
+					// The summary is very slow or failing, drop the oldest messages meanwhile
+					all = new ArrayList<>(all.subList(all.size() - this.maxMessages, all.size()));
+				}
+			}
+			this.repository.saveAll(conversationId, all);
+		}
+		finally {
+			lock.unlock();
+		}
+		if (evicted != null) {
+			List<Message> toSummarize = evicted;
+			try {
+				this.executor.execute(() -> summarizeAndFold(conversationId, toSummarize));
+			}
+			catch (RejectedExecutionException e) {
+				// Shutting down, the messages stay
+				this.summarizing.remove(conversationId);
+			}
+		}
+	}
+
+	@Override
+	public List<Message> get(String conversationId) {
+		return this.repository.findByConversationId(conversationId);
+	}
+
+	@Override
+	public void clear(String conversationId) {
+		this.repository.deleteByConversationId(conversationId);
+	}
+
+	private void summarizeAndFold(String conversationId, List<Message> evicted) {
+		try {
+			fold(conversationId, evicted, summarize(evicted));
+			this.failures.set(0);
+		}
+		catch (RuntimeException e) {
+			// The messages stay; an add after the backoff tries again
+			int failed = this.failures.incrementAndGet();
+			long backoff = Math.min(MAX_BACKOFF.toNanos(), MIN_BACKOFF.toNanos() << Math.min(failed - 1, 16));
+			this.retryAt = System.nanoTime() + backoff;
+			logger.warn("Cannot summarize conversation {}, {} failures in a row", conversationId, failed, e);
+		}
+		finally {
+			this.summarizing.remove(conversationId);
+		}
+	}
+
+	private boolean backingOff() {
+		return this.failures.get() > 0 && System.nanoTime() - this.retryAt < 0;
+	}
+
+	// Replaces the evicted messages by their summary, unless the conversation has been
+	// cleared or restarted in the meantime
+	private void fold(String conversationId, List<Message> evicted, String summary) {
+		Lock lock = lockFor(conversationId);
+		lock.lock();
+		try {
+			List<Message> current = this.repository.findByConversationId(conversationId);
+			if (!startsWith(current, evicted)) {
+				return;
+			}
+			List<Message> result = new ArrayList<>(current.size() - evicted.size() + 1);
+			result.add(new SystemMessage(SUMMARY_PREFIX + summary));
+			result.addAll(current.subList(evicted.size(), current.size()));
+			this.repository.saveAll(conversationId, result);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	// The repository may hand out copies, so messages are compared by type and text
+	private static boolean startsWith(List<Message> messages, List<Message> prefix) {
+		if (messages.size() < prefix.size()) {
+			return false;
+		}
+		for (int i = 0; i < prefix.size(); i++) {
+			Message message = messages.get(i);
+			Message expected = prefix.get(i);
+			if (message.getMessageType() != expected.getMessageType()
+					|| !Objects.equals(message.getText(), expected.getText())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private Lock lockFor(String conversationId) {
+		return this.locks[Math.floorMod(conversationId.hashCode(), LOCK_STRIPES)];
+	}
+
+	@PreDestroy
+	void shutdown() {
+		this.executor.shutdownNow();
+	}
+
+	private String summarize(List<Message> messages) {
+		String transcript = messages.stream().map(m -> {
+			if (m.getMessageType() == MessageType.SYSTEM && m.getText().startsWith(SUMMARY_PREFIX)) {
+				return m.getText();
+			}
+			return m.getMessageType().getValue() + ": " + m.getText();
+		}).collect(Collectors.joining("\n"));
+
+		return this.summarizer.prompt()
+			.system("""
+					Summarize the following customer support conversation in a few sentences.
+					Keep booking numbers, customer names, dates, airports and any decisions or
+					pending requests exactly as stated.
+					""")
+			.user(transcript)
+			.call()
+			.content();
+	}
+
+}
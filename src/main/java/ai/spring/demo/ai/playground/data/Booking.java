@@ -1,37 +1,77 @@
 package ai.spring.demo.ai.playground.data;
 
 import java.time.LocalDate;
-
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * A flight booking.
+ * <p>
+ * The booking number and customer identify the booking and are used by the
+ * {@link BookingData} indexes. Everything else is kept in an immutable {@link Snapshot}
+ * that is replaced atomically on every change, so readers never block and never observe
+ * a half-applied multi-field update. Use {@link #update(UnaryOperator)} to change several
+ * fields at once.
+ */
 public class Booking {
 
 	private String bookingNumber;
 
-	private LocalDate date;
-
-	private LocalDate bookingTo;
-
 	private Customer customer;
 
-	private String from;
-
-	private String to;
-
-	private BookingStatus bookingStatus;
-
-	private String seatNumber;
-
-	private BookingClass bookingClass;
+	private final AtomicReference<Snapshot> snapshot;
 
 	public Booking(String bookingNumber, LocalDate date, Customer customer, BookingStatus bookingStatus, String from,
 			String to, String seatNumber, BookingClass bookingClass) {
 		this.bookingNumber = bookingNumber;
-		this.date = date;
 		this.customer = customer;
-		this.bookingStatus = bookingStatus;
-		this.from = from;
-		this.to = to;
-        this.seatNumber = seatNumber;
-		this.bookingClass = bookingClass;
+		this.snapshot = new AtomicReference<>(
+				new Snapshot(date, null, from, to, bookingStatus, seatNumber, bookingClass));
+	}
+
+	/**
+	 * For views of bookings whose state is kept elsewhere, see {@link CompactBookingData}.
+	 * Such subclasses override {@link #snapshot()}, {@link #update(UnaryOperator)},
+	 * {@link #compareAndSet(Snapshot, Snapshot)} and the accessors of the booking number
+	 * and customer.
+	 */
+	protected Booking(String bookingNumber, Customer customer) {
+		this.bookingNumber = bookingNumber;
+		this.customer = customer;
+		this.snapshot = null;
+	}
+
+	/**
+	 * Returns a consistent view of the mutable booking state.
+	 * @return the current snapshot
+	 */
+	public Snapshot snapshot() {
+		return this.snapshot.get();
+	}
+
+	/**
+	 * Atomically replaces the booking state. The update function may be invoked more than
+	 * once under contention and should therefore be side effect free. Validation errors
+	 * thrown by the function abort the update.
+	 * @param updateFunction function computing the new state from the current one
+	 * @return the new snapshot
+	 */
+	public Snapshot update(UnaryOperator<Snapshot> updateFunction) {
+		return this.snapshot.updateAndGet(updateFunction);
+	}
+
+	/**
+	 * Replaces the booking state only if it is still the expected snapshot. Useful when the
+	 * new state depends on side effects (e.g. a seat allocation) that must be undone if
+	 * another change won the race.
+	 * @param expected the snapshot the new state was derived from
+	 * @param newSnapshot the new state
+	 * @return {@code true} if the state was replaced
+	 */
+	public boolean compareAndSet(Snapshot expected, Snapshot newSnapshot) {
+		return this.snapshot.compareAndSet(expected, newSnapshot);
 	}
 
 	public String getBookingNumber() {
@@ -43,19 +83,21 @@ public class Booking {
 	}
 
 	public LocalDate getDate() {
-		return date;
+		return snapshot().date();
 	}
 
 	public void setDate(LocalDate date) {
-		this.date = date;
+		update(s -> s.withDate(date));
 	}
 
+	@Nullable
 	public LocalDate getBookingTo() {
-		return bookingTo;
+		return snapshot().bookingTo();
 	}
 
-	public void setBookingTo(LocalDate bookingTo) {
-		this.bookingTo = bookingTo;
+	public void setBookingTo(@Nullable LocalDate bookingTo) {
+		update(s -> new Snapshot(s.date(), bookingTo, s.from(), s.to(), s.bookingStatus(), s.seatNumber(),
+				s.bookingClass()));
 	}
 
 	public Customer getCustomer() {
@@ -67,43 +109,68 @@ public class Booking {
 	}
 
 	public BookingStatus getBookingStatus() {
-		return bookingStatus;
+		return snapshot().bookingStatus();
 	}
 
 	public void setBookingStatus(BookingStatus bookingStatus) {
-		this.bookingStatus = bookingStatus;
+		update(s -> s.withBookingStatus(bookingStatus));
 	}
 
 	public String getFrom() {
-		return from;
+		return snapshot().from();
 	}
 
 	public void setFrom(String from) {
-		this.from = from;
+		update(s -> s.withRoute(from, s.to()));
 	}
 
 	public String getTo() {
-		return to;
+		return snapshot().to();
 	}
 
 	public void setTo(String to) {
-		this.to = to;
+		update(s -> s.withRoute(s.from(), to));
 	}
 
 	public BookingClass getBookingClass() {
-		return bookingClass;
+		return snapshot().bookingClass();
 	}
 
 	public void setBookingClass(BookingClass bookingClass) {
-		this.bookingClass = bookingClass;
+		update(s -> new Snapshot(s.date(), s.bookingTo(), s.from(), s.to(), s.bookingStatus(), s.seatNumber(),
+				bookingClass));
 	}
 
 	public String getSeatNumber() {
-		return seatNumber;
+		return snapshot().seatNumber();
 	}
 
 	public void setSeatNumber(String seatNumber) {
-		this.seatNumber = seatNumber;
+		update(s -> s.withSeatNumber(seatNumber));
+	}
+
+	/**
+	 * Immutable state of a booking at a point in time.
+	 */
+	public record Snapshot(LocalDate date, @Nullable LocalDate bookingTo, String from, String to,
+			BookingStatus bookingStatus, String seatNumber, BookingClass bookingClass) {
+
+		public Snapshot withDate(LocalDate date) {
+			return new Snapshot(date, bookingTo, from, to, bookingStatus, seatNumber, bookingClass);
+		}
+
+		public Snapshot withRoute(String from, String to) {
+			return new Snapshot(date, bookingTo, from, to, bookingStatus, seatNumber, bookingClass);
+		}
+
+		public Snapshot withBookingStatus(BookingStatus bookingStatus) {
+			return new Snapshot(date, bookingTo, from, to, bookingStatus, seatNumber, bookingClass);
+		}
+
+		public Snapshot withSeatNumber(String seatNumber) {
+			return new Snapshot(date, bookingTo, from, to, bookingStatus, seatNumber, bookingClass);
+		}
+
 	}
 
-}
\ No newline at end of file
+}
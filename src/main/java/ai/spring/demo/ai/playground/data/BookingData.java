@@ -1,27 +1,152 @@
 package ai.spring.demo.ai.playground.data;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.springframework.lang.Nullable;
+
+/**
+ * In-memory booking store.
+ * <p>
+ * Besides the plain customer and booking lists, the store keeps a hash index on the
+ * normalized booking number and a secondary index on the customer (last name, first
+ * name), so that lookups do not need to scan the whole table. The indexes are rebuilt
+ * by {@link #setCustomers(List)} / {@link #setBookings(List)} and kept up to date by
+ * {@link #addBooking(Booking)} and {@link #removeBooking(Booking)}.
+ * <p>
+ * The store is safe for concurrent use. Reads and index lookups never block; structural
+ * changes (adding, removing or replacing bookings) are serialized on the store, while
+ * changes to a single booking go through {@link Booking#update} and do not touch the
+ * store at all.
+ */
 public class BookingData {
 
-    private List<Customer> customers = new ArrayList<>();
-    private List<Booking> bookings = new ArrayList<>();
+    private volatile List<Customer> customers = new CopyOnWriteArrayList<>();
+    private volatile List<Booking> bookings = new CopyOnWriteArrayList<>();
 
+    private volatile Map<String, Booking> bookingsByNumber = new ConcurrentHashMap<>();
+    private volatile Map<CustomerKey, Customer> customersByName = new ConcurrentHashMap<>();
 
     public List<Customer> getCustomers() {
         return customers;
     }
 
-    public void setCustomers(List<Customer> customers) {
-        this.customers = customers;
+    public synchronized void setCustomers(List<Customer> customers) {
+        var index = new ConcurrentHashMap<CustomerKey, Customer>(customers.size() * 2);
+        for (Customer customer : customers) {
+            if (!(customer.getBookings() instanceof CopyOnWriteArrayList)) {
+                customer.setBookings(new CopyOnWriteArrayList<>(customer.getBookings()));
+            }
+            index.put(CustomerKey.of(customer.getFirstName(), customer.getLastName()), customer);
+        }
+        this.customers = new CopyOnWriteArrayList<>(customers);
+        this.customersByName = index;
     }
 
     public List<Booking> getBookings() {
         return bookings;
     }
 
-    public void setBookings(List<Booking> bookings) {
-        this.bookings = bookings;
+    public synchronized void setBookings(List<Booking> bookings) {
+        var index = new ConcurrentHashMap<String, Booking>(bookings.size() * 2);
+        for (Booking booking : bookings) {
+            index.put(normalizeBookingNumber(booking.getBookingNumber()), booking);
+        }
+        this.bookings = new CopyOnWriteArrayList<>(bookings);
+        this.bookingsByNumber = index;
+    }
+
+    /**
+     * Finds a booking by its booking number, ignoring case and surrounding whitespace.
+     * @param bookingNumber the booking number
+     * @return the booking or {@code null} if there is no such booking
+     */
+    @Nullable
+    public Booking findBooking(@Nullable String bookingNumber) {
+        return this.bookingsByNumber.get(normalizeBookingNumber(bookingNumber));
+    }
+
+    /**
+     * Finds a customer by name, ignoring case.
+     * @param firstName the customer first name
+     * @param lastName the customer last name
+     * @return the customer or {@code null} if there is no such customer
+     */
+    @Nullable
+    public Customer findCustomer(String firstName, String lastName) {
+        return this.customersByName.get(CustomerKey.of(firstName, lastName));
+    }
+
+    /**
+     * Adds a booking to the store and updates both indexes. The booking is attached to
+     * the already known customer with the same name, if any.
+     * @param booking the booking to add
+     * @throws IllegalArgumentException if a booking with the same number already exists
+     */
+    public synchronized void addBooking(Booking booking) {
+        String key = normalizeBookingNumber(booking.getBookingNumber());
+        if (this.bookingsByNumber.containsKey(key)) {
+            throw new IllegalArgumentException("Booking " + booking.getBookingNumber() + " already exists");
+        }
+        Customer customer = this.customersByName.computeIfAbsent(
+                CustomerKey.of(booking.getCustomer().getFirstName(), booking.getCustomer().getLastName()), k -> {
+                    this.customers.add(booking.getCustomer());
+                    return booking.getCustomer();
+                });
+        booking.setCustomer(customer);
+        customer.getBookings().add(booking);
+        this.bookings.add(booking);
+        this.bookingsByNumber.put(key, booking);
+    }
+
+    /**
+     * Removes a booking from the store and from both indexes. Customers left without
+     * bookings are removed as well.
+     * @param booking the booking to remove
+     */
+    public synchronized void removeBooking(Booking booking) {
+        if (this.bookingsByNumber.remove(normalizeBookingNumber(booking.getBookingNumber())) == null) {
+            return;
+        }
+        this.bookings.remove(booking);
+        Customer customer = booking.getCustomer();
+        customer.getBookings().remove(booking);
+        if (customer.getBookings().isEmpty()) {
+            this.customersByName.remove(CustomerKey.of(customer.getFirstName(), customer.getLastName()));
+            this.customers.remove(customer);
+        }
     }
+
+    /**
+     * Checks that a booking in the given state can be stored, so that callers can reject
+     * a change before side effects such as a seat allocation. Any state can be stored
+     * here.
+     * @param snapshot the state to check
+     * @throws IllegalArgumentException if the state cannot be stored
+     */
+    public void checkStorable(Booking.Snapshot snapshot) {
+    }
+
+    /**
+     * Returns the form booking numbers are indexed by, for callers keeping their own
+     * per-booking state. A missing number (e.g. left out of a tool call by the model)
+     * becomes the empty string, which matches no booking.
+     */
+    // strip() and toUpperCase() return the same instance when there is nothing to change,
+    // so the common lookup of an already normalized number does not allocate.
+    public static String normalizeBookingNumber(@Nullable String bookingNumber) {
+        return bookingNumber != null ? bookingNumber.strip().toUpperCase(Locale.ROOT) : "";
+    }
+
+    private record CustomerKey(String lastName, String firstName) {
+
+        static CustomerKey of(String firstName, String lastName) {
+            return new CustomerKey(lastName.strip().toLowerCase(Locale.ROOT), firstName.strip().toLowerCase(Locale.ROOT));
+        }
+
+    }
+
 }
@@ -0,0 +1,136 @@
+package ai.spring.demo.ai.playground.data;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import ai.spring.demo.ai.playground.data.SeatInventory.Flight;
+import org.springframework.lang.Nullable;
+
+/**
+ * Bookings ordered by departure date and by route, for range queries whose cost grows
+ * with the number of results rather than the number of bookings.
+ * <p>
+ * Every booking has one entry per index, keyed by its flight and booking number. Both
+ * indexes are concurrent skip lists, so scans never block and see entries added or
+ * removed while they run. The index only locates candidates: callers check each one
+ * against the current state of the booking and skip entries that no longer match.
+ * <p>
+ * The entries are not small: with a million bookings of the benchmark data set the index
+ * retains 114 MB, 120 bytes per booking. On top of {@link CompactBookingData}, which does
+ * not keep booking number strings, it retains 183 MB, about four times the store itself.
+ */
+public class BookingIndex {
+
+    private static final Comparator<Key> BY_DATE = Comparator.comparing((Key key) -> key.flight().date())
+        .thenComparing(key -> key.flight().from())
+        .thenComparing(key -> key.flight().to())
+        .thenComparing(Key::bookingNumber);
+
+    private static final Comparator<Key> BY_ROUTE = Comparator.comparing((Key key) -> key.flight().from())
+        .thenComparing(key -> key.flight().to())
+        .thenComparing(key -> key.flight().date())
+        .thenComparing(Key::bookingNumber);
+
+    private final NavigableSet<Key> byDate = new ConcurrentSkipListSet<>(BY_DATE);
+
+    private final NavigableSet<Key> byRoute = new ConcurrentSkipListSet<>(BY_ROUTE);
+
+    /**
+     * Rebuilds the index from the given bookings.
+     * @param bookings the bookings to load
+     */
+    public void load(Collection<Booking> bookings) {
+        this.byDate.clear();
+        this.byRoute.clear();
+        for (Booking booking : bookings) {
+            add(booking.getBookingNumber(), Flight.of(booking.snapshot()));
+        }
+    }
+
+    public void add(String bookingNumber, Flight flight) {
+        var key = new Key(flight, bookingNumber);
+        this.byDate.add(key);
+        this.byRoute.add(key);
+    }
+
+    public void remove(String bookingNumber, Flight flight) {
+        var key = new Key(flight, bookingNumber);
+        this.byDate.remove(key);
+        this.byRoute.remove(key);
+    }
+
+    /**
+     * Returns the order of the entries returned by {@link #find} for a query with the
+     * given origin.
+     * @param from the origin, or {@code null} for any
+     */
+    public static Comparator<Key> order(@Nullable String from) {
+        return from != null ? BY_ROUTE : BY_DATE;
+    }
+
+    /**
+     * Returns the entries departing in the given date range, in the order of the index
+     * that fits the query best: by route if an origin is given, by date otherwise.
+     * @param from the origin, or {@code null} for any
+     * @param to the destination, or {@code null} for any; only narrows the range if an
+     * origin is given as well
+     * @param firstDate the first departure date, or {@code null} for no lower bound
+     * @param lastDate the last departure date (inclusive), or {@code null} for no upper
+     * bound
+     * @param after the last entry of the previous page, or {@code null} to start at the
+     * beginning
+     * @return a live view of the index range; entries outside the date range may remain
+     * when only the origin is given
+     */
+    public NavigableSet<Key> find(@Nullable String from, @Nullable String to, @Nullable LocalDate firstDate,
+            @Nullable LocalDate lastDate, @Nullable Key after) {
+        LocalDate first = firstDate != null ? firstDate : LocalDate.MIN;
+        LocalDate end = lastDate != null && lastDate.isBefore(LocalDate.MAX) ? lastDate.plusDays(1) : null;
+        NavigableSet<Key> index;
+        Key lower;
+        Key upper;
+        if (from != null && to != null) {
+            index = this.byRoute;
+            lower = bound(from, to, first);
+            upper = end != null ? bound(from, to, end) : bound(from, to + '\0', LocalDate.MIN);
+        }
+        else if (from != null) {
+            index = this.byRoute;
+            lower = bound(from, "", LocalDate.MIN);
+            upper = bound(from + '\0', "", LocalDate.MIN);
+        }
+        else {
+            index = this.byDate;
+            lower = bound("", "", first);
+            upper = end != null ? bound("", "", end) : null;
+        }
+        Comparator<? super Key> order = index.comparator();
+        boolean lowerInclusive = true;
+        if (after != null && order.compare(after, lower) >= 0) {
+            lower = after;
+            lowerInclusive = false;
+        }
+        if (upper == null) {
+            return index.tailSet(lower, lowerInclusive);
+        }
+        if (order.compare(lower, upper) >= 0) {
+            return index.subSet(upper, true, upper, false);
+        }
+        return index.subSet(lower, lowerInclusive, upper, false);
+    }
+
+    // Sorts before every booking of the flight, as booking numbers are never empty
+    private static Key bound(String from, String to, LocalDate date) {
+        return new Key(new Flight(from, to, date), "");
+    }
+
+    /**
+     * An index entry: the flight of a booking when it was indexed.
+     */
+    public record Key(Flight flight, String bookingNumber) {
+    }
+
+}
@@ -0,0 +1,416 @@
+package ai.spring.demo.ai.playground.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+
+/**
+ * Embedded persistence for {@link BookingData}: an append-only write-ahead log of
+ * booking changes plus periodic compact binary snapshots.
+ * <p>
+ * Every log entry holds the complete state of one booking, read at append time, so
+ * replay is idempotent and the last entry for a booking always wins. Appends only copy
+ * the entry into an in-memory buffer; a background thread writes and fsyncs the buffer
+ * once per group-commit interval, so a crash can lose at most the changes of the last
+ * interval.
+ * <p>
+ * Taking a snapshot first rolls the log to a new generation and then writes all bookings
+ * to {@code snapshot.bin} (through a temporary file and an atomic rename). Logs older
+ * than the snapshot are deleted afterwards. On recovery the snapshot is memory-mapped
+ * and the remaining log generations are replayed on top of it.
+ */
+public class BookingJournal implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(BookingJournal.class);
+
+	private static final int SNAPSHOT_MAGIC = 0x464E4253; // "FNBS"
+
+	private static final int FORMAT_VERSION = 1;
+
+	private static final String SNAPSHOT_FILE = "snapshot.bin";
+
+	private static final String LOG_PREFIX = "wal-";
+
+	private static final String LOG_SUFFIX = ".log";
+
+	private static final long NO_DATE = Long.MIN_VALUE;
+
+	private final Path directory;
+
+	private final ScheduledExecutorService scheduler;
+
+	private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+	private FileChannel log;
+
+	private long generation;
+
+	private BookingJournal(Path directory, Duration groupCommitInterval) throws IOException {
+		this.directory = Files.createDirectories(directory);
+		this.generation = logGenerations().stream().mapToLong(Long::longValue).max().orElse(0) + 1;
+		this.log = openLog(this.generation);
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "booking-journal");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long interval = Math.max(1, groupCommitInterval.toMillis());
+		this.scheduler.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Opens the journal in the given directory. New log entries always go into a fresh
+	 * log generation.
+	 * @param directory the data directory, created if missing
+	 * @param groupCommitInterval how often buffered entries are written and fsynced
+	 * @return the journal
+	 */
+	public static BookingJournal open(Path directory, Duration groupCommitInterval) {
+		try {
+			return new BookingJournal(directory, groupCommitInterval);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException("Cannot open booking journal in " + directory, e);
+		}
+	}
+
+	/**
+	 * Schedules periodic snapshots of the given store.
+	 * @param db the store to snapshot
+	 * @param interval the snapshot interval
+	 */
+	public void scheduleSnapshots(BookingData db, Duration interval) {
+		long millis = Math.max(1, interval.toMillis());
+		this.scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				snapshot(db);
+			}
+			catch (RuntimeException e) {
+				logger.warn("Booking snapshot failed", e);
+			}
+		}, millis, millis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Restores the store from the latest snapshot and the log entries written after it.
+	 * @param db the store to populate
+	 * @return {@code false} if there was nothing to recover
+	 */
+	public boolean recover(BookingData db) {
+		try {
+			Map<String, Entry> entries = new LinkedHashMap<>();
+			Path snapshotFile = this.directory.resolve(SNAPSHOT_FILE);
+			long snapshotGeneration = 0;
+			if (Files.exists(snapshotFile)) {
+				snapshotGeneration = readSnapshot(snapshotFile, entries);
+			}
+			for (long logGeneration : logGenerations()) {
+				if (logGeneration > snapshotGeneration && logGeneration < this.generation) {
+					readLog(logPath(logGeneration), entries);
+				}
+			}
+			if (entries.isEmpty()) {
+				return false;
+			}
+			materialize(entries.values(), db);
+			logger.info("Recovered {} bookings from {}", entries.size(), this.directory);
+			return true;
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException("Cannot recover bookings from " + this.directory, e);
+		}
+	}
+
+	/**
+	 * Appends the current state of a booking to the log. Must be called after the change
+	 * has been applied to the booking; because the state is read under the append lock,
+	 * the last entry for a booking reflects its final state even when concurrent changes
+	 * append out of order.
+	 * @param booking the changed booking
+	 */
+	public synchronized void append(Booking booking) {
+		byte[] payload = encode(Entry.of(booking));
+		ensureCapacity(Integer.BYTES * 2 + payload.length);
+		writeFrame(this.buffer, payload);
+	}
+
+	/**
+	 * Writes a snapshot of the store and removes the log generations it covers.
+	 * @param db the store to snapshot
+	 */
+	public void snapshot(BookingData db) {
+		long covered;
+		synchronized (this) {
+			flushQuietly();
+			covered = this.generation;
+			try {
+				this.log.close();
+				this.generation++;
+				this.log = openLog(this.generation);
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException("Cannot roll booking log", e);
+			}
+		}
+		try {
+			// Changes racing with the snapshot end up both in the snapshot and in the new log
+			// generation; replaying them again is harmless.
+			Path tmp = this.directory.resolve(SNAPSHOT_FILE + ".tmp");
+			try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING)) {
+				List<Booking> bookings = List.copyOf(db.getBookings());
+				ByteBuffer out = ByteBuffer.allocate(256 * 1024);
+				out.putInt(SNAPSHOT_MAGIC).putInt(FORMAT_VERSION).putLong(covered).putInt(bookings.size());
+				for (Booking booking : bookings) {
+					byte[] payload = encode(Entry.of(booking));
+					if (out.remaining() < Integer.BYTES * 2 + payload.length) {
+						out.flip();
+						writeFully(channel, out);
+						out.clear();
+					}
+					writeFrame(out, payload);
+				}
+				out.flip();
+				writeFully(channel, out);
+				channel.force(true);
+			}
+			Files.move(tmp, this.directory.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			for (long logGeneration : logGenerations()) {
+				if (logGeneration <= covered) {
+					Files.deleteIfExists(logPath(logGeneration));
+				}
+			}
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException("Cannot write booking snapshot", e);
+		}
+	}
+
+	/**
+	 * Writes and fsyncs all buffered log entries.
+	 */
+	public synchronized void flush() throws IOException {
+		if (this.buffer.position() == 0) {
+			return;
+		}
+		this.buffer.flip();
+		writeFully(this.log, this.buffer);
+		this.buffer.clear();
+		this.log.force(false);
+	}
+
+	@Override
+	public void close() {
+		this.scheduler.shutdown();
+		synchronized (this) {
+			flushQuietly();
+			try {
+				this.log.close();
+			}
+			catch (IOException e) {
+				logger.warn("Cannot close booking log", e);
+			}
+		}
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		}
+		catch (IOException e) {
+			logger.error("Booking log group commit failed", e);
+		}
+	}
+
+	private void ensureCapacity(int required) {
+		if (this.buffer.remaining() < required) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(this.buffer.capacity() * 2, this.buffer.position() + required));
+			this.buffer.flip();
+			larger.put(this.buffer);
+			this.buffer = larger;
+		}
+	}
+
+	private FileChannel openLog(long logGeneration) throws IOException {
+		return FileChannel.open(logPath(logGeneration), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+	}
+
+	private Path logPath(long logGeneration) {
+		return this.directory.resolve(LOG_PREFIX + String.format("%016d", logGeneration) + LOG_SUFFIX);
+	}
+
+	private List<Long> logGenerations() throws IOException {
+		try (Stream<Path> files = Files.list(this.directory)) {
+			return files.map(p -> p.getFileName().toString())
+				.filter(name -> name.startsWith(LOG_PREFIX) && name.endsWith(LOG_SUFFIX))
+				.map(name -> Long.parseLong(name.substring(LOG_PREFIX.length(), name.length() - LOG_SUFFIX.length())))
+				.sorted()
+				.toList();
+		}
+	}
+
+	private static long readSnapshot(Path file, Map<String, Entry> entries) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (in.remaining() < 20 || in.getInt() != SNAPSHOT_MAGIC || in.getInt() != FORMAT_VERSION) {
+				throw new IOException("Not a booking snapshot: " + file);
+			}
+			long covered = in.getLong();
+			int count = in.getInt();
+			for (int i = 0; i < count; i++) {
+				Entry entry = readFrame(in);
+				if (entry == null) {
+					throw new IOException("Corrupt booking snapshot: " + file);
+				}
+				entries.put(entry.bookingNumber(), entry);
+			}
+			return covered;
+		}
+	}
+
+	private static void readLog(Path file, Map<String, Entry> entries) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			while (in.hasRemaining()) {
+				Entry entry = readFrame(in);
+				if (entry == null) {
+					// Torn write from a crash during group commit, ignore the tail
+					logger.warn("Ignoring truncated tail of {}", file);
+					return;
+				}
+				entries.put(entry.bookingNumber(), entry);
+			}
+		}
+	}
+
+	private static void materialize(Iterable<Entry> entries, BookingData db) {
+		Map<String, Customer> customers = new HashMap<>();
+		List<Booking> bookings = new ArrayList<>();
+		for (Entry entry : entries) {
+			Customer customer = customers.computeIfAbsent(entry.firstName() + '\0' + entry.lastName(),
+					k -> new Customer(entry.firstName(), entry.lastName()));
+			Booking.Snapshot s = entry.state();
+			Booking booking = new Booking(entry.bookingNumber(), s.date(), customer, s.bookingStatus(), s.from(),
+					s.to(), s.seatNumber(), s.bookingClass());
+			booking.setBookingTo(s.bookingTo());
+			customer.getBookings().add(booking);
+			bookings.add(booking);
+		}
+		db.setCustomers(new ArrayList<>(customers.values()));
+		db.setBookings(bookings);
+	}
+
+	// -----------------------------
+	// Binary format
+	// -----------------------------
+
+	private static void writeFrame(ByteBuffer out, byte[] payload) {
+		CRC32C crc = new CRC32C();
+		crc.update(payload);
+		out.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+	}
+
+	@Nullable
+	private static Entry readFrame(ByteBuffer in) {
+		if (in.remaining() < Integer.BYTES * 2) {
+			return null;
+		}
+		int length = in.getInt();
+		int checksum = in.getInt();
+		if (length < 0 || in.remaining() < length) {
+			return null;
+		}
+		byte[] payload = new byte[length];
+		in.get(payload);
+		CRC32C crc = new CRC32C();
+		crc.update(payload);
+		return ((int) crc.getValue() == checksum) ? decode(ByteBuffer.wrap(payload)) : null;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private static byte[] encode(Entry entry) {
+		Booking.Snapshot s = entry.state();
+		byte[][] strings = { utf8(entry.bookingNumber()), utf8(entry.firstName()), utf8(entry.lastName()),
+				utf8(s.from()), utf8(s.to()), utf8(s.seatNumber()) };
+		int size = Long.BYTES * 2 + 2;
+		for (byte[] string : strings) {
+			size += Short.BYTES + string.length;
+		}
+		ByteBuffer out = ByteBuffer.allocate(size);
+		for (byte[] string : strings) {
+			out.putShort((short) string.length).put(string);
+		}
+		out.putLong(s.date().toEpochDay());
+		out.putLong(s.bookingTo() != null ? s.bookingTo().toEpochDay() : NO_DATE);
+		out.put((byte) s.bookingStatus().ordinal());
+		out.put((byte) s.bookingClass().ordinal());
+		return out.array();
+	}
+
+	private static Entry decode(ByteBuffer in) {
+		String bookingNumber = readString(in);
+		String firstName = readString(in);
+		String lastName = readString(in);
+		String from = readString(in);
+		String to = readString(in);
+		String seatNumber = readString(in);
+		LocalDate date = LocalDate.ofEpochDay(in.getLong());
+		long bookingTo = in.getLong();
+		BookingStatus status = BookingStatus.values()[in.get()];
+		BookingClass bookingClass = BookingClass.values()[in.get()];
+		return new Entry(bookingNumber, firstName, lastName, new Booking.Snapshot(date,
+				bookingTo != NO_DATE ? LocalDate.ofEpochDay(bookingTo) : null, from, to, status, seatNumber,
+				bookingClass));
+	}
+
+	private static byte[] utf8(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[Short.toUnsignedInt(in.getShort())];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private record Entry(String bookingNumber, String firstName, String lastName, Booking.Snapshot state) {
+
+		static Entry of(Booking booking) {
+			return new Entry(booking.getBookingNumber(), booking.getCustomer().getFirstName(),
+					booking.getCustomer().getLastName(), booking.snapshot());
+		}
+
+	}
+
+}
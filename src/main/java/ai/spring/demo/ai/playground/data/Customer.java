@@ -1,14 +1,14 @@
 package ai.spring.demo.ai.playground.data;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class Customer {
 
     private String firstName;
     private String lastName;
 
-    private List<Booking> bookings = new ArrayList<>();
+    private List<Booking> bookings = new CopyOnWriteArrayList<>();
 
     public Customer() {
     }
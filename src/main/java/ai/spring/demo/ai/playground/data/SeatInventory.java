@@ -0,0 +1,193 @@
+package ai.spring.demo.ai.playground.data;
+
+import java.time.LocalDate;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * Seat occupancy per flight.
+ * <p>
+ * Every flight, identified by (from, to, date), has a bitset with one bit per seat of
+ * the cabin layout ({@link #ROWS} x {@link #SEATS_PER_ROW}). Seats are allocated and
+ * released with compare-and-set on the bitset words, so concurrent allocations of the
+ * same seat cannot both succeed and no locks are taken. Occupancy snapshots are plain
+ * reads of the words.
+ */
+public class SeatInventory {
+
+    public static final int ROWS = 12;
+
+    public static final int SEATS_PER_ROW = 6;
+
+    public static final String SEAT_LETTERS = "ABCDEF";
+
+    public static final int SEATS = ROWS * SEATS_PER_ROW;
+
+    private static final int WORDS = (SEATS + Long.SIZE - 1) / Long.SIZE;
+
+    private final Map<Flight, AtomicLongArray> flights = new ConcurrentHashMap<>();
+
+    /**
+     * Rebuilds the inventory from the given bookings. Cancelled bookings and bookings
+     * with seats outside of the cabin layout do not occupy a seat.
+     * @param bookings the bookings to load
+     */
+    public void load(Collection<Booking> bookings) {
+        this.flights.clear();
+        for (Booking booking : bookings) {
+            var s = booking.snapshot();
+            if (s.bookingStatus() != BookingStatus.CANCELLED && seatIndex(s.seatNumber()) >= 0) {
+                allocate(Flight.of(s), s.seatNumber());
+            }
+        }
+    }
+
+    /**
+     * Allocates a seat on a flight.
+     * @param flight the flight
+     * @param seatNumber the seat (e.g. "1A")
+     * @return {@code true} if the seat was free and is now taken, {@code false} if it
+     * was already taken
+     * @throws IllegalArgumentException if the seat is not part of the cabin layout
+     */
+    public boolean allocate(Flight flight, String seatNumber) {
+        int seat = requireSeatIndex(seatNumber);
+        AtomicLongArray words = this.flights.computeIfAbsent(flight, f -> new AtomicLongArray(WORDS));
+        int word = seat / Long.SIZE;
+        long mask = 1L << (seat % Long.SIZE);
+        long current;
+        do {
+            current = words.get(word);
+            if ((current & mask) != 0) {
+                return false;
+            }
+        }
+        while (!words.compareAndSet(word, current, current | mask));
+        return true;
+    }
+
+    /**
+     * Allocates the first free seat on a flight.
+     * @param flight the flight
+     * @return the allocated seat or {@code null} if the flight is full
+     */
+    @Nullable
+    public String allocateAny(Flight flight) {
+        for (int seat = 0; seat < SEATS; seat++) {
+            String seatNumber = seatNumber(seat);
+            if (!isOccupied(flight, seat) && allocate(flight, seatNumber)) {
+                return seatNumber;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Releases a seat on a flight. Releasing a free seat or a seat outside of the cabin
+     * layout is a no-op.
+     * @param flight the flight
+     * @param seatNumber the seat (e.g. "1A")
+     */
+    public void release(Flight flight, String seatNumber) {
+        int seat = seatIndex(seatNumber);
+        AtomicLongArray words = this.flights.get(flight);
+        if (seat < 0 || words == null) {
+            return;
+        }
+        int word = seat / Long.SIZE;
+        long mask = 1L << (seat % Long.SIZE);
+        long current;
+        do {
+            current = words.get(word);
+        }
+        while ((current & mask) != 0 && !words.compareAndSet(word, current, current & ~mask));
+    }
+
+    /**
+     * Returns a snapshot of the occupied seats of a flight, indexed by
+     * {@link #seatIndex(String)}.
+     * @param flight the flight
+     * @return the occupied seats
+     */
+    public BitSet occupancy(Flight flight) {
+        AtomicLongArray words = this.flights.get(flight);
+        if (words == null) {
+            return new BitSet(SEATS);
+        }
+        long[] copy = new long[WORDS];
+        for (int i = 0; i < WORDS; i++) {
+            copy[i] = words.get(i);
+        }
+        return BitSet.valueOf(copy);
+    }
+
+    private boolean isOccupied(Flight flight, int seat) {
+        AtomicLongArray words = this.flights.get(flight);
+        return words != null && (words.get(seat / Long.SIZE) & (1L << (seat % Long.SIZE))) != 0;
+    }
+
+    /**
+     * Converts a seat number such as "12F" to its index in the cabin layout.
+     * @param seatNumber the seat number
+     * @return the seat index or {@code -1} if the seat is not part of the layout
+     */
+    public static int seatIndex(@Nullable String seatNumber) {
+        if (seatNumber == null || seatNumber.length() < 2) {
+            return -1;
+        }
+        int last = seatNumber.length() - 1;
+        int letter = SEAT_LETTERS.indexOf(Character.toUpperCase(seatNumber.charAt(last)));
+        int row = 0;
+        for (int i = 0; i < last; i++) {
+            char c = seatNumber.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            row = row * 10 + (c - '0');
+        }
+        if (letter < 0 || row < 1 || row > ROWS) {
+            return -1;
+        }
+        return (row - 1) * SEATS_PER_ROW + letter;
+    }
+
+    /**
+     * Converts a seat index back to its seat number.
+     * @param seatIndex the seat index
+     * @return the seat number (e.g. "1A")
+     */
+    public static String seatNumber(int seatIndex) {
+        return (seatIndex / SEATS_PER_ROW + 1) + String.valueOf(SEAT_LETTERS.charAt(seatIndex % SEATS_PER_ROW));
+    }
+
+    private static int requireSeatIndex(String seatNumber) {
+        int seat = seatIndex(seatNumber);
+        if (seat < 0) {
+            throw new IllegalArgumentException("Invalid seat number: " + seatNumber);
+        }
+        return seat;
+    }
+
+    /**
+     * Identifies a flight by route and date.
+     */
+    public record Flight(String from, String to, LocalDate date) {
+
+        public Flight {
+            from = from.strip().toUpperCase(Locale.ROOT);
+            to = to.strip().toUpperCase(Locale.ROOT);
+        }
+
+        public static Flight of(Booking.Snapshot snapshot) {
+            return new Flight(snapshot.from(), snapshot.to(), snapshot.date());
+        }
+
+    }
+
+}
@@ -0,0 +1,161 @@
+package ai.spring.demo.ai.playground.observation;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.tracing.handler.TracingObservationHandler;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.observation.ChatModelObservationContext;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.tool.observation.ToolCallingObservationContext;
+import org.springframework.ai.vectorstore.observation.VectorStoreObservationContext;
+import org.springframework.lang.Nullable;
+
+/**
+ * Captures the prompts, completions, tool calls and vector store results of the model
+ * observations without slowing down the requests.
+ * <p>
+ * When an observation stops, only a reference to its context is put into a bounded
+ * queue. A background thread turns it into text, truncates every part to a maximum
+ * length and hands it to the sink (the log). If the queue is full the entry is dropped
+ * and counted rather than making the request wait. The entries carry the trace id, so
+ * they can be found from a trace that was kept by the tail sampling.
+ * <p>
+ * Replaces the {@code log-prompt}, {@code log-completion}, {@code log-input},
+ * {@code log-query-response} and {@code include-content} options of Spring AI, which do
+ * this work on the request thread and put the content into the spans.
+ */
+public class ContentCaptureHandler implements ObservationHandler<Observation.Context>, AutoCloseable {
+
+	private final BlockingQueue<Entry> queue;
+
+	private final int maxChars;
+
+	private final Consumer<String> sink;
+
+	private final Counter dropped;
+
+	private final Thread worker;
+
+	/**
+	 * @param queueSize maximum number of observations waiting to be captured
+	 * @param maxChars maximum length of each prompt, completion or result
+	 * @param sink receives the captured text
+	 * @param meterRegistry registry for the queue metrics
+	 */
+	public ContentCaptureHandler(int queueSize, int maxChars, Consumer<String> sink, MeterRegistry meterRegistry) {
+		this.queue = new ArrayBlockingQueue<>(queueSize);
+		this.maxChars = maxChars;
+		this.sink = sink;
+		this.dropped = Counter.builder("observation.content.capture.dropped")
+			.description("Observations whose content was not captured because the queue was full")
+			.register(meterRegistry);
+		Gauge.builder("observation.content.capture.queued", this.queue, BlockingQueue::size)
+			.description("Observations waiting for their content to be captured")
+			.register(meterRegistry);
+		this.worker = Thread.ofVirtual().name("content-capture").start(this::drain);
+	}
+
+	@Override
+	public boolean supportsContext(Observation.Context context) {
+		return context instanceof ChatModelObservationContext || context instanceof ToolCallingObservationContext
+				|| context instanceof VectorStoreObservationContext;
+	}
+
+	@Override
+	public void onStop(Observation.Context context) {
+		if (!this.queue.offer(new Entry(traceId(context), context))) {
+			this.dropped.increment();
+		}
+	}
+
+	@Nullable
+	private static String traceId(Observation.Context context) {
+		TracingObservationHandler.TracingContext tracing = context.get(TracingObservationHandler.TracingContext.class);
+		return tracing != null && tracing.getSpan() != null ? tracing.getSpan().context().traceId() : null;
+	}
+
+	private void drain() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				Entry entry = this.queue.take();
+				try {
+					this.sink.accept(describe(entry.traceId(), entry.context()));
+				}
+				catch (RuntimeException e) {
+					// A context that cannot be described must not stop the capture
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	String describe(@Nullable String traceId, Observation.Context context) {
+		var text = new StringBuilder().append(context.getName()).append(" traceId=").append(traceId);
+		if (context instanceof ChatModelObservationContext chat) {
+			text.append("\nprompt: ").append(truncate(messages(chat.getRequest().getInstructions())));
+			ChatResponse response = chat.getResponse();
+			if (response != null) {
+				text.append("\ncompletion: ")
+					.append(truncate(response.getResults()
+						.stream()
+						.map(Generation::getOutput)
+						.map(Message::getText)
+						.collect(Collectors.joining("\n"))));
+			}
+		}
+		else if (context instanceof ToolCallingObservationContext tool) {
+			text.append("\ntool: ")
+				.append(tool.getToolDefinition().name())
+				.append("\narguments: ")
+				.append(truncate(tool.getToolCallArguments()))
+				.append("\nresult: ")
+				.append(truncate(tool.getToolCallResult()));
+		}
+		else if (context instanceof VectorStoreObservationContext vectorStore) {
+			if (vectorStore.getQueryRequest() != null) {
+				text.append("\nquery: ").append(truncate(vectorStore.getQueryRequest().getQuery()));
+			}
+			List<Document> documents = vectorStore.getQueryResponse();
+			if (documents != null) {
+				text.append("\ndocuments: ")
+					.append(truncate(documents.stream().map(Document::getText).collect(Collectors.joining("\n---\n"))));
+			}
+		}
+		return text.toString();
+	}
+
+	private static String messages(List<Message> messages) {
+		return messages.stream()
+			.map(message -> message.getMessageType() + ": " + message.getText())
+			.collect(Collectors.joining("\n"));
+	}
+
+	private String truncate(@Nullable String text) {
+		if (text == null || text.length() <= this.maxChars) {
+			return String.valueOf(text);
+		}
+		return text.substring(0, this.maxChars) + "... (" + (text.length() - this.maxChars) + " more chars)";
+	}
+
+	@Override
+	public void close() {
+		this.worker.interrupt();
+	}
+
+	private record Entry(@Nullable String traceId, Observation.Context context) {
+	}
+
+}
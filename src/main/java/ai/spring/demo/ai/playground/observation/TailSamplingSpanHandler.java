@@ -0,0 +1,262 @@
+package ai.spring.demo.ai.playground.observation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import brave.handler.MutableSpan;
+import brave.handler.SpanHandler;
+import brave.propagation.TraceContext;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Tail-based sampling in front of a span exporter.
+ * <p>
+ * Every span is recorded (the head sampling probability stays at 1.0), but the spans of
+ * a trace are held back until its local root span ends. Then the whole trace is either
+ * exported or dropped: traces with an error or with a span slower than the latency
+ * threshold are always kept, the others only as far as a budget of traces per second
+ * allows. The share of those kept adapts to the traffic once per second, so the export
+ * volume stays about the same under load. The decision is deterministic per trace id.
+ * <p>
+ * Spans ending after their root follow the decision taken for the trace. Traces whose
+ * root has not ended within the trace timeout are decided with what has arrived so far.
+ * When too many traces are pending, new ones are decided span by span instead.
+ * <p>
+ * Closing decides the pending traces, stops the scheduler and closes the exporter, so it
+ * sends what it still has buffered.
+ */
+public class TailSamplingSpanHandler extends SpanHandler implements Closeable {
+
+	private final SpanHandler delegate;
+
+	private final long latencyThresholdMicros;
+
+	private final double maxTracesPerSecond;
+
+	private final int maxPendingTraces;
+
+	private final int maxSpansPerTrace;
+
+	private final long traceTimeoutNanos;
+
+	private final Map<Long, PendingTrace> pending = new ConcurrentHashMap<>();
+
+	// Decisions for spans ending after their root, by local root span id
+	private final Cache<Long, Boolean> decided = Caffeine.newBuilder()
+		.maximumSize(100_000)
+		.expireAfterWrite(Duration.ofMinutes(1))
+		.build();
+
+	private final AtomicLong rootsThisSecond = new AtomicLong();
+
+	private volatile double probability = 1.0;
+
+	private final Counter kept;
+
+	private final Counter keptForced;
+
+	private final Counter dropped;
+
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "tail-sampling");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * @param delegate the exporter receiving the sampled spans
+	 * @param latencyThreshold spans taking at least this long keep their trace
+	 * @param maxTracesPerSecond budget for traces kept without being slow or failed
+	 * @param maxPendingTraces maximum number of traces held back at the same time
+	 * @param maxSpansPerTrace spans held back per trace; later spans are dropped
+	 * @param traceTimeout time after which a trace without ended root is decided
+	 * @param meterRegistry registry for the sampling metrics
+	 */
+	public TailSamplingSpanHandler(SpanHandler delegate, Duration latencyThreshold, double maxTracesPerSecond,
+			int maxPendingTraces, int maxSpansPerTrace, Duration traceTimeout, MeterRegistry meterRegistry) {
+		this.delegate = delegate;
+		this.latencyThresholdMicros = latencyThreshold.toNanos() / 1000;
+		this.maxTracesPerSecond = maxTracesPerSecond;
+		this.maxPendingTraces = maxPendingTraces;
+		this.maxSpansPerTrace = maxSpansPerTrace;
+		this.traceTimeoutNanos = traceTimeout.toNanos();
+		this.kept = meterRegistry.counter("tracing.tail.sampling.traces", "decision", "kept");
+		this.keptForced = meterRegistry.counter("tracing.tail.sampling.traces", "decision", "kept-slow-or-error");
+		this.dropped = meterRegistry.counter("tracing.tail.sampling.traces", "decision", "dropped");
+		Gauge.builder("tracing.tail.sampling.probability", this, h -> h.probability)
+			.description("Share of regular traces currently kept")
+			.register(meterRegistry);
+		Gauge.builder("tracing.tail.sampling.pending", this.pending, Map::size)
+			.description("Traces held back until their root span ends")
+			.register(meterRegistry);
+		this.scheduler.scheduleAtFixedRate(this::adapt, 1, 1, TimeUnit.SECONDS);
+		this.scheduler.scheduleAtFixedRate(this::expire, 1, 1, TimeUnit.SECONDS);
+	}
+
+	@Override
+	public boolean end(TraceContext context, MutableSpan span, Cause cause) {
+		if (cause == Cause.ABANDONED) {
+			return true;
+		}
+		long root = context.localRootId();
+		boolean interesting = isInteresting(span);
+		if (context.spanId() == root) {
+			PendingTrace trace = this.pending.remove(root);
+			boolean keep = decide(context, interesting || (trace != null && trace.interesting));
+			this.decided.put(root, keep);
+			if (trace != null) {
+				trace.close(keep);
+			}
+			if (keep) {
+				this.delegate.end(context, span, cause);
+			}
+			return true;
+		}
+
+		PendingTrace trace = this.pending.get(root);
+		if (trace != null && trace.add(context, span, cause, interesting)) {
+			return true;
+		}
+		Boolean decision = this.decided.getIfPresent(root);
+		if (decision != null) {
+			if (decision) {
+				this.delegate.end(context, span, cause);
+			}
+			return true;
+		}
+		if (trace == null) {
+			if (this.pending.size() >= this.maxPendingTraces) {
+				// Overloaded: decide this span on its own
+				if (interesting || sampled(context)) {
+					this.delegate.end(context, span, cause);
+				}
+				return true;
+			}
+			trace = this.pending.computeIfAbsent(root, id -> new PendingTrace(context));
+		}
+		if (!trace.add(context, span, cause, interesting) && (interesting || sampled(context))) {
+			// Decided in the meantime without this span
+			this.delegate.end(context, span, cause);
+		}
+		return true;
+	}
+
+	private boolean isInteresting(MutableSpan span) {
+		if (span.error() != null || span.tag("error") != null) {
+			return true;
+		}
+		long start = span.startTimestamp();
+		long finish = span.finishTimestamp();
+		return start != 0 && finish != 0 && finish - start >= this.latencyThresholdMicros;
+	}
+
+	private boolean decide(TraceContext context, boolean interesting) {
+		this.rootsThisSecond.incrementAndGet();
+		if (interesting) {
+			this.keptForced.increment();
+			return true;
+		}
+		if (sampled(context)) {
+			this.kept.increment();
+			return true;
+		}
+		this.dropped.increment();
+		return false;
+	}
+
+	// The same trace id gets the same answer for the same probability
+	private boolean sampled(TraceContext context) {
+		return (context.traceId() & Long.MAX_VALUE) < this.probability * Long.MAX_VALUE;
+	}
+
+	private void adapt() {
+		long roots = this.rootsThisSecond.getAndSet(0);
+		this.probability = roots <= this.maxTracesPerSecond ? 1.0 : this.maxTracesPerSecond / roots;
+	}
+
+	private void expire() {
+		long now = System.nanoTime();
+		this.pending.forEach((root, trace) -> {
+			if (now - trace.created > this.traceTimeoutNanos) {
+				expire(root, trace);
+			}
+		});
+	}
+
+	private void expire(Long root, PendingTrace trace) {
+		if (this.pending.remove(root, trace)) {
+			boolean keep = decide(trace.context, trace.interesting);
+			this.decided.put(root, keep);
+			trace.close(keep);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.scheduler.shutdownNow();
+		this.pending.forEach(this::expire);
+		if (this.delegate instanceof Closeable closeable) {
+			closeable.close();
+		}
+	}
+
+	private record HeldSpan(TraceContext context, MutableSpan span, Cause cause) {
+	}
+
+	private final class PendingTrace {
+
+		private final long created = System.nanoTime();
+
+		// Any span of the trace, for the sampling decision by trace id
+		private final TraceContext context;
+
+		private final List<HeldSpan> spans = new ArrayList<>();
+
+		private volatile boolean interesting;
+
+		private boolean closed;
+
+		PendingTrace(TraceContext context) {
+			this.context = context;
+		}
+
+		// False if the trace was decided already
+		synchronized boolean add(TraceContext context, MutableSpan span, Cause cause, boolean interesting) {
+			if (this.closed) {
+				return false;
+			}
+			if (interesting) {
+				this.interesting = true;
+			}
+			if (this.spans.size() < maxSpansPerTrace) {
+				this.spans.add(new HeldSpan(context, span, cause));
+			}
+			return true;
+		}
+
+		synchronized void close(boolean keep) {
+			this.closed = true;
+			if (keep) {
+				for (HeldSpan held : this.spans) {
+					delegate.end(held.context(), held.span(), held.cause());
+				}
+			}
+			this.spans.clear();
+		}
+
+	}
+
+}
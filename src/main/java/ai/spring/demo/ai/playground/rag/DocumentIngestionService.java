@@ -0,0 +1,247 @@
+package ai.spring.demo.ai.playground.rag;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.reader.TextReader;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+/**
+ * Incremental ingestion of documents into the vector store.
+ * <p>
+ * Every chunk produced by the {@link TokenTextSplitter} is identified by the SHA-256 of
+ * its text, and its vector store id is derived from that hash. A per-source manifest
+ * remembers which chunks were written last time, so only new chunks are embedded and
+ * chunks that disappeared from the document are deleted. The manifest lives outside of
+ * the store, which may have been reset since (e.g. an in-memory store after a restart), so
+ * the chunks it lists are looked up in the store before they are skipped; if the store
+ * cannot answer, everything is embedded again. Because ids are deterministic,
+ * re-adding a chunk (e.g. after the manifest was lost) replaces it instead of creating
+ * a duplicate. New chunks are embedded in batches with bounded concurrency.
+ */
+@Service
+public class DocumentIngestionService {
+
+	public static final String CHUNK_HASH_METADATA = "chunk_hash";
+
+	private static final Logger logger = LoggerFactory.getLogger(DocumentIngestionService.class);
+
+	// Chunk hashes looked up per search when checking the manifest against the store
+	private static final int LOOKUP_BATCH_SIZE = 256;
+
+	private final VectorStore vectorStore;
+
+	private final RetrievalCache retrievalCache;
+
+	private final Path manifestDirectory;
+
+	private final int batchSize;
+
+	private final Semaphore concurrency;
+
+	private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	public DocumentIngestionService(VectorStore vectorStore, RetrievalCache retrievalCache,
+			@Value("${rag.ingestion.manifest-directory:./data/ingestion}") Path manifestDirectory,
+			@Value("${rag.ingestion.batch-size:16}") int batchSize,
+			@Value("${rag.ingestion.max-concurrent-batches:4}") int maxConcurrentBatches) {
+		this.vectorStore = vectorStore;
+		this.retrievalCache = retrievalCache;
+		this.manifestDirectory = manifestDirectory;
+		this.batchSize = batchSize;
+		this.concurrency = new Semaphore(maxConcurrentBatches);
+	}
+
+	/**
+	 * Ingests the resource in the background.
+	 * @param resource the document to ingest
+	 * @return the ingestion result
+	 */
+	public CompletableFuture<Result> ingestAsync(Resource resource) {
+		return CompletableFuture.supplyAsync(() -> ingest(resource), this.executor).whenComplete((result, ex) -> {
+			if (ex != null) {
+				logger.error("Ingestion of {} failed", resource.getFilename(), ex);
+			}
+			else {
+				logger.info("Ingested {}: {}", resource.getFilename(), result);
+			}
+		});
+	}
+
+	/**
+	 * Brings the vector store up to date with the resource.
+	 * @param resource the document to ingest
+	 * @return the ingestion result
+	 */
+	public Result ingest(Resource resource) {
+		String source = resource.getFilename() != null ? resource.getFilename() : resource.getDescription();
+		Map<String, Document> chunks = new LinkedHashMap<>();
+		for (Document chunk : new TokenTextSplitter().transform(new TextReader(resource).read())) {
+			String hash = sha256(chunk.getText());
+			Map<String, Object> metadata = new LinkedHashMap<>(chunk.getMetadata());
+			metadata.put(CHUNK_HASH_METADATA, hash);
+			chunks.putIfAbsent(hash, Document.builder()
+				.id(UUID.nameUUIDFromBytes(hash.getBytes(StandardCharsets.UTF_8)).toString())
+				.text(chunk.getText())
+				.metadata(metadata)
+				.build());
+		}
+
+		Map<String, String> previous = readManifest(source);
+		Set<String> stored = storedChunks(chunks, previous);
+		List<Document> added = chunks.entrySet()
+			.stream()
+			.filter(e -> !stored.contains(e.getKey()))
+			.map(Map.Entry::getValue)
+			.toList();
+		List<String> removed = previous.entrySet()
+			.stream()
+			.filter(e -> !chunks.containsKey(e.getKey()))
+			.map(Map.Entry::getValue)
+			.toList();
+
+		writeInBatches(added);
+		if (!removed.isEmpty()) {
+			this.vectorStore.delete(removed);
+		}
+		if (!added.isEmpty() || !removed.isEmpty()) {
+			this.retrievalCache.invalidate();
+		}
+
+		Map<String, String> manifest = new LinkedHashMap<>();
+		chunks.forEach((hash, chunk) -> manifest.put(hash, chunk.getId()));
+		writeManifest(source, manifest);
+		return new Result(added.size(), removed.size(), chunks.size() - added.size());
+	}
+
+	// Returns the hashes of the chunks that the manifest lists and the store still holds
+	private Set<String> storedChunks(Map<String, Document> chunks, Map<String, String> previous) {
+		List<String> candidates = chunks.keySet().stream().filter(previous::containsKey).toList();
+		Set<String> stored = new HashSet<>();
+		try {
+			for (int i = 0; i < candidates.size(); i += LOOKUP_BATCH_SIZE) {
+				List<String> batch = candidates.subList(i, Math.min(i + LOOKUP_BATCH_SIZE, candidates.size()));
+				SearchRequest request = SearchRequest.builder()
+					.query(chunks.get(batch.get(0)).getText())
+					.topK(batch.size())
+					.similarityThresholdAll()
+					.filterExpression(new FilterExpressionBuilder().in(CHUNK_HASH_METADATA, batch.toArray()).build())
+					.build();
+				for (Document document : this.vectorStore.similaritySearch(request)) {
+					if (document.getMetadata().get(CHUNK_HASH_METADATA) instanceof String hash) {
+						stored.add(hash);
+					}
+				}
+			}
+		}
+		catch (RuntimeException e) {
+			logger.warn("Cannot look up the ingested chunks in the vector store, ingesting all of them again", e);
+			return Set.of();
+		}
+		if (stored.size() < candidates.size()) {
+			logger.info("{} chunks of the ingestion manifest are missing from the vector store",
+					candidates.size() - stored.size());
+		}
+		return stored;
+	}
+
+	private void writeInBatches(List<Document> documents) {
+		List<CompletableFuture<Void>> batches = new ArrayList<>();
+		for (int i = 0; i < documents.size(); i += this.batchSize) {
+			List<Document> batch = documents.subList(i, Math.min(i + this.batchSize, documents.size()));
+			batches.add(CompletableFuture.runAsync(() -> {
+				this.concurrency.acquireUninterruptibly();
+				try {
+					this.vectorStore.add(batch);
+				}
+				finally {
+					this.concurrency.release();
+				}
+			}, this.executor));
+		}
+		CompletableFuture.allOf(batches.toArray(CompletableFuture[]::new)).join();
+	}
+
+	private Map<String, String> readManifest(String source) {
+		Path file = manifestFile(source);
+		if (!Files.exists(file)) {
+			return Map.of();
+		}
+		try {
+			return this.objectMapper.readValue(file.toFile(), new TypeReference<Map<String, String>>() {
+			});
+		}
+		catch (IOException e) {
+			logger.warn("Ignoring unreadable ingestion manifest {}", file, e);
+			return Map.of();
+		}
+	}
+
+	private void writeManifest(String source, Map<String, String> manifest) {
+		Path file = manifestFile(source);
+		try {
+			Files.createDirectories(this.manifestDirectory);
+			Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+			this.objectMapper.writeValue(tmp.toFile(), manifest);
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException("Cannot write ingestion manifest " + file, e);
+		}
+	}
+
+	private Path manifestFile(String source) {
+		return this.manifestDirectory.resolve(source.replaceAll("[^A-Za-z0-9._-]", "_") + ".manifest.json");
+	}
+
+	private static String sha256(String text) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@PreDestroy
+	void shutdown() {
+		this.executor.shutdownNow();
+	}
+
+	public record Result(int added, int removed, int unchanged) {
+	}
+
+}
@@ -0,0 +1,414 @@
+package ai.spring.demo.ai.playground.rag;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.DocumentMetadata;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptionsBuilder;
+import org.springframework.ai.observation.conventions.VectorStoreSimilarityMetric;
+import org.springframework.ai.vectorstore.AbstractVectorStoreBuilder;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.converter.SimpleVectorStoreFilterExpressionConverter;
+import org.springframework.ai.vectorstore.observation.AbstractObservationVectorStore;
+import org.springframework.ai.vectorstore.observation.VectorStoreObservationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.lang.Nullable;
+
+/**
+ * {@link org.springframework.ai.vectorstore.VectorStore} that keeps small, hot corpora
+ * (such as the terms of service) inside the application, avoiding a network round trip
+ * per retrieval.
+ * <p>
+ * Embeddings are normalized on insert and stored back to back in a single off-heap
+ * float buffer, so a search is one sequential pass of dot products with a bounded heap
+ * for the top-k. When a directory is configured the buffer is a memory-mapped file and
+ * the documents are written next to it, so the store survives restarts without
+ * re-embedding. Metadata filter expressions are supported through the same SpEL
+ * conversion as Spring AI's {@code SimpleVectorStore}.
+ */
+public class InProcessVectorStore extends AbstractObservationVectorStore {
+
+	private static final Logger logger = LoggerFactory.getLogger(InProcessVectorStore.class);
+
+	private static final String VECTORS_FILE = "vectors.f32";
+
+	private static final String DOCUMENTS_FILE = "documents.json";
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private final SimpleVectorStoreFilterExpressionConverter filterConverter = new SimpleVectorStoreFilterExpressionConverter();
+
+	private final SpelExpressionParser expressionParser = new SpelExpressionParser();
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	@Nullable
+	private final Path directory;
+
+	private final List<Document> documents = new ArrayList<>();
+
+	private final Map<String, Integer> slotsById = new HashMap<>();
+
+	private int dimensions;
+
+	@Nullable
+	private FloatBuffer vectors;
+
+	@Nullable
+	private FileChannel vectorsChannel;
+
+	@Nullable
+	private MappedByteBuffer mapped;
+
+	protected InProcessVectorStore(Builder builder) {
+		super(builder);
+		this.directory = builder.directory;
+		if (this.directory != null) {
+			load();
+		}
+	}
+
+	public static Builder builder(EmbeddingModel embeddingModel) {
+		return new Builder(embeddingModel);
+	}
+
+	@Override
+	public void doAdd(List<Document> documents) {
+		if (documents.isEmpty()) {
+			return;
+		}
+		List<float[]> embeddings = this.embeddingModel.embed(documents, EmbeddingOptionsBuilder.builder().build(),
+				this.batchingStrategy);
+		this.lock.writeLock().lock();
+		try {
+			for (int i = 0; i < documents.size(); i++) {
+				Document document = documents.get(i);
+				float[] embedding = embeddings.get(i);
+				if (this.dimensions == 0) {
+					this.dimensions = embedding.length;
+				}
+				else if (embedding.length != this.dimensions) {
+					throw new IllegalArgumentException("Expected embeddings with " + this.dimensions
+							+ " dimensions but got " + embedding.length);
+				}
+				Integer slot = this.slotsById.get(document.getId());
+				if (slot == null) {
+					slot = this.documents.size();
+					ensureCapacity(slot + 1);
+					this.documents.add(document);
+					this.slotsById.put(document.getId(), slot);
+				}
+				else {
+					this.documents.set(slot, document);
+				}
+				writeVector(slot, normalize(embedding));
+			}
+			persist();
+		}
+		finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void doDelete(List<String> idList) {
+		this.lock.writeLock().lock();
+		try {
+			for (String id : idList) {
+				removeSlot(id);
+			}
+			persist();
+		}
+		finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	protected void doDelete(Filter.Expression filterExpression) {
+		Predicate<Document> predicate = filterPredicate(filterExpression);
+		this.lock.writeLock().lock();
+		try {
+			List<String> ids = this.documents.stream().filter(predicate).map(Document::getId).toList();
+			ids.forEach(this::removeSlot);
+			persist();
+		}
+		finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public List<Document> doSimilaritySearch(SearchRequest request) {
+		float[] query = normalize(this.embeddingModel.embed(request.getQuery()));
+		Predicate<Document> predicate = request.hasFilterExpression()
+				? filterPredicate(request.getFilterExpression()) : document -> true;
+
+		this.lock.readLock().lock();
+		try {
+			if (this.documents.isEmpty() || query.length != this.dimensions) {
+				return List.of();
+			}
+			// Min-heap on the score keeps the k best candidates seen so far
+			PriorityQueue<Candidate> topK = new PriorityQueue<>(request.getTopK() + 1);
+			for (int slot = 0; slot < this.documents.size(); slot++) {
+				double score = dot(query, slot);
+				if (score < request.getSimilarityThreshold()
+						|| (topK.size() == request.getTopK() && score <= topK.peek().score())) {
+					continue;
+				}
+				if (!predicate.test(this.documents.get(slot))) {
+					continue;
+				}
+				topK.add(new Candidate(slot, score));
+				if (topK.size() > request.getTopK()) {
+					topK.poll();
+				}
+			}
+			List<Document> results = new ArrayList<>(topK.size());
+			while (!topK.isEmpty()) {
+				Candidate candidate = topK.poll();
+				Document document = this.documents.get(candidate.slot());
+				Map<String, Object> metadata = new HashMap<>(document.getMetadata());
+				metadata.put(DocumentMetadata.DISTANCE.value(), 1 - candidate.score());
+				results.add(0, Document.builder()
+					.id(document.getId())
+					.text(document.getText())
+					.metadata(metadata)
+					.score(candidate.score())
+					.build());
+			}
+			return results;
+		}
+		finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public VectorStoreObservationContext.Builder createObservationContextBuilder(String operationName) {
+		return VectorStoreObservationContext.builder("in_process", operationName)
+			.dimensions(this.dimensions)
+			.collectionName(this.directory != null ? this.directory.toString() : "in-memory")
+			.similarityMetric(VectorStoreSimilarityMetric.COSINE.value());
+	}
+
+	private Predicate<Document> filterPredicate(Filter.Expression filterExpression) {
+		Expression expression = this.expressionParser
+			.parseExpression(this.filterConverter.convertExpression(filterExpression));
+		return document -> {
+			StandardEvaluationContext context = new StandardEvaluationContext();
+			context.setVariable("metadata", document.getMetadata());
+			return Boolean.TRUE.equals(expression.getValue(context, Boolean.class));
+		};
+	}
+
+	// -----------------------------
+	// Vector storage
+	// -----------------------------
+
+	private double dot(float[] query, int slot) {
+		FloatBuffer buffer = this.vectors;
+		int base = slot * this.dimensions;
+		// Four independent accumulators let the JIT pipeline (and vectorize) the loop
+		float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = 0;
+		for (; i + 3 < query.length; i += 4) {
+			s0 += query[i] * buffer.get(base + i);
+			s1 += query[i + 1] * buffer.get(base + i + 1);
+			s2 += query[i + 2] * buffer.get(base + i + 2);
+			s3 += query[i + 3] * buffer.get(base + i + 3);
+		}
+		for (; i < query.length; i++) {
+			s0 += query[i] * buffer.get(base + i);
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	private void writeVector(int slot, float[] vector) {
+		this.vectors.put(slot * this.dimensions, vector);
+	}
+
+	private void removeSlot(String id) {
+		Integer slot = this.slotsById.remove(id);
+		if (slot == null) {
+			return;
+		}
+		// Keep the buffer dense by moving the last vector into the freed slot
+		int last = this.documents.size() - 1;
+		if (slot != last) {
+			float[] moved = new float[this.dimensions];
+			this.vectors.get(last * this.dimensions, moved);
+			writeVector(slot, moved);
+			Document movedDocument = this.documents.get(last);
+			this.documents.set(slot, movedDocument);
+			this.slotsById.put(movedDocument.getId(), slot);
+		}
+		this.documents.remove(last);
+	}
+
+	private void ensureCapacity(int slots) {
+		int required = slots * this.dimensions;
+		if (this.vectors != null && this.vectors.capacity() >= required) {
+			return;
+		}
+		int capacity = Math.max(INITIAL_CAPACITY * this.dimensions, required * 2);
+		if (this.directory == null) {
+			FloatBuffer grown = ByteBuffer.allocateDirect(capacity * Float.BYTES)
+				.order(ByteOrder.nativeOrder())
+				.asFloatBuffer();
+			if (this.vectors != null) {
+				grown.put(0, this.vectors, 0, this.documents.size() * this.dimensions);
+			}
+			this.vectors = grown;
+			return;
+		}
+		try {
+			if (this.vectorsChannel == null) {
+				Files.createDirectories(this.directory);
+				this.vectorsChannel = FileChannel.open(this.directory.resolve(VECTORS_FILE), StandardOpenOption.CREATE,
+						StandardOpenOption.READ, StandardOpenOption.WRITE);
+			}
+			// Re-mapping a larger region keeps the file content, so nothing has to be copied
+			this.mapped = this.vectorsChannel.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * Float.BYTES);
+			this.vectors = this.mapped.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException("Cannot map " + this.directory.resolve(VECTORS_FILE), e);
+		}
+	}
+
+	private static float[] normalize(float[] vector) {
+		double norm = 0;
+		for (float v : vector) {
+			norm += v * v;
+		}
+		if (norm == 0) {
+			return vector;
+		}
+		float scale = (float) (1 / Math.sqrt(norm));
+		float[] normalized = new float[vector.length];
+		for (int i = 0; i < vector.length; i++) {
+			normalized[i] = vector[i] * scale;
+		}
+		return normalized;
+	}
+
+	// -----------------------------
+	// Persistence
+	// -----------------------------
+
+	private void persist() {
+		if (this.directory == null) {
+			return;
+		}
+		try {
+			if (this.mapped != null) {
+				this.mapped.force();
+			}
+			List<StoredDocument> stored = this.documents.stream()
+				.map(d -> new StoredDocument(d.getId(), d.getText(), d.getMetadata()))
+				.toList();
+			Path tmp = this.directory.resolve(DOCUMENTS_FILE + ".tmp");
+			this.objectMapper.writeValue(tmp.toFile(), new StoredState(this.dimensions, stored));
+			Files.move(tmp, this.directory.resolve(DOCUMENTS_FILE), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException("Cannot persist vector store to " + this.directory, e);
+		}
+	}
+
+	private void load() {
+		Path documentsFile = this.directory.resolve(DOCUMENTS_FILE);
+		if (!Files.exists(documentsFile)) {
+			return;
+		}
+		try {
+			StoredState state = this.objectMapper.readValue(documentsFile.toFile(), StoredState.class);
+			if (state.dimensions() == 0 || state.documents().isEmpty()) {
+				return;
+			}
+			this.dimensions = state.dimensions();
+			ensureCapacity(state.documents().size());
+			for (StoredDocument stored : state.documents()) {
+				this.slotsById.put(stored.id(), this.documents.size());
+				this.documents.add(Document.builder().id(stored.id()).text(stored.text()).metadata(stored.metadata()).build());
+			}
+			logger.info("Loaded {} documents from {}", this.documents.size(), this.directory);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException("Cannot load vector store from " + this.directory, e);
+		}
+	}
+
+	private record Candidate(int slot, double score) implements Comparable<Candidate> {
+
+		@Override
+		public int compareTo(Candidate other) {
+			return Double.compare(this.score, other.score);
+		}
+
+	}
+
+	private record StoredDocument(String id, @Nullable String text, Map<String, Object> metadata) {
+	}
+
+	private record StoredState(int dimensions, List<StoredDocument> documents) {
+	}
+
+	public static final class Builder extends AbstractVectorStoreBuilder<Builder> {
+
+		@Nullable
+		private Path directory;
+
+		private Builder(EmbeddingModel embeddingModel) {
+			super(embeddingModel);
+		}
+
+		/**
+		 * Persists the store in the given directory. Without a directory the store lives in
+		 * direct memory only.
+		 * @param directory the directory holding the vector and document files
+		 * @return this builder
+		 */
+		public Builder directory(@Nullable Path directory) {
+			this.directory = directory;
+			return this;
+		}
+
+		@Override
+		public InProcessVectorStore build() {
+			return new InProcessVectorStore(this);
+		}
+
+	}
+
+}
@@ -0,0 +1,62 @@
+package ai.spring.demo.ai.playground.rag;
+
+import java.time.Duration;
+import java.util.List;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.BatchingStrategy;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+/**
+ * Remembers the embeddings of recently embedded query texts.
+ * <p>
+ * On a {@link RetrievalCache} miss the query is embedded twice: once by the cache to
+ * look for a similar cached query and once more by the vector store for the actual
+ * search. With both going through this decorator the second call is served from memory.
+ * Only {@link #embed(String)} is memoized; document batches, as embedded during
+ * ingestion, always go to the model.
+ */
+public class MemoizingEmbeddingModel implements EmbeddingModel {
+
+	private final EmbeddingModel delegate;
+
+	private final Cache<String, float[]> embeddings;
+
+	public MemoizingEmbeddingModel(EmbeddingModel delegate, long maxSize, Duration ttl) {
+		this.delegate = delegate;
+		this.embeddings = Caffeine.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl).build();
+	}
+
+	@Override
+	public float[] embed(String text) {
+		// Callers get a copy, so modifying the returned array cannot corrupt the memo
+		return this.embeddings.get(text, this.delegate::embed).clone();
+	}
+
+	@Override
+	public EmbeddingResponse call(EmbeddingRequest request) {
+		return this.delegate.call(request);
+	}
+
+	@Override
+	public float[] embed(Document document) {
+		return this.delegate.embed(document);
+	}
+
+	@Override
+	public List<float[]> embed(List<Document> documents, EmbeddingOptions options,
+			BatchingStrategy batchingStrategy) {
+		return this.delegate.embed(documents, options, batchingStrategy);
+	}
+
+	@Override
+	public int dimensions() {
+		return this.delegate.dimensions();
+	}
+
+}
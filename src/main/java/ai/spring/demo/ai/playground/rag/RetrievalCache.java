@@ -0,0 +1,230 @@
+package ai.spring.demo.ai.playground.rag;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * Cache for the similarity searches done by the RAG advisor.
+ * <p>
+ * Lookups first try an exact match on the normalized query text. On a miss the query is
+ * embedded and compared against the embeddings of the cached queries; if one is close
+ * enough (cosine similarity above the configured threshold) its documents are reused.
+ * Either way the remote vector search is skipped. Entries are evicted by size and TTL
+ * and the whole cache is dropped whenever documents are added to or removed from the
+ * store; searches that were running at that moment do not cache their results.
+ * <p>
+ * The query is embedded as given, so that on a miss the vector store asks the
+ * {@link MemoizingEmbeddingModel} for the same text and reuses the embedding.
+ */
+@Component
+public class RetrievalCache {
+
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+	private final EmbeddingModel embeddingModel;
+
+	private final boolean enabled;
+
+	private final boolean semanticEnabled;
+
+	private final double similarityThreshold;
+
+	private final Cache<QueryKey, Entry> cache;
+
+	// Incremented by every invalidation
+	private final AtomicLong generation = new AtomicLong();
+
+	private final Counter exactHits;
+
+	private final Counter semanticHits;
+
+	private final Counter misses;
+
+	public RetrievalCache(EmbeddingModel embeddingModel, MeterRegistry meterRegistry,
+			@Value("${rag.cache.enabled:true}") boolean enabled,
+			@Value("${rag.cache.semantic.enabled:true}") boolean semanticEnabled,
+			@Value("${rag.cache.semantic.similarity-threshold:0.95}") double similarityThreshold,
+			@Value("${rag.cache.max-size:1000}") long maxSize, @Value("${rag.cache.ttl:30m}") Duration ttl) {
+		this.embeddingModel = embeddingModel;
+		this.enabled = enabled;
+		this.semanticEnabled = semanticEnabled;
+		this.similarityThreshold = similarityThreshold;
+		this.cache = Caffeine.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl).build();
+		this.exactHits = meterRegistry.counter("rag.retrieval.cache", "result", "hit", "match", "exact");
+		this.semanticHits = meterRegistry.counter("rag.retrieval.cache", "result", "hit", "match", "semantic");
+		this.misses = meterRegistry.counter("rag.retrieval.cache", "result", "miss", "match", "none");
+	}
+
+	/**
+	 * Wraps a vector store so that its similarity searches go through this cache and its
+	 * writes invalidate it.
+	 * @param vectorStore the store to wrap
+	 * @return the caching store
+	 */
+	public VectorStore decorate(VectorStore vectorStore) {
+		return this.enabled ? new CachingVectorStore(vectorStore) : vectorStore;
+	}
+
+	/**
+	 * Drops all cached results, e.g. after the documents have been re-ingested.
+	 */
+	public void invalidate() {
+		this.generation.incrementAndGet();
+		this.cache.invalidateAll();
+	}
+
+	private List<Document> search(VectorStore delegate, SearchRequest request) {
+		long generation = this.generation.get();
+		QueryKey key = QueryKey.of(request);
+		Entry entry = this.cache.getIfPresent(key);
+		if (entry != null) {
+			this.exactHits.increment();
+			return entry.documents();
+		}
+		float[] embedding = null;
+		if (this.semanticEnabled && !key.query().isEmpty()) {
+			embedding = this.embeddingModel.embed(request.getQuery());
+			Entry similar = findSimilar(key, embedding);
+			if (similar != null) {
+				this.semanticHits.increment();
+				put(key, similar, generation);
+				return similar.documents();
+			}
+		}
+		this.misses.increment();
+		List<Document> documents = delegate.similaritySearch(request);
+		put(key, new Entry(embedding, documents), generation);
+		return documents;
+	}
+
+	// An invalidation between the search and the put would otherwise leave results of the
+	// old documents in the cache. Checking after the put covers both orders: either the
+	// invalidation clears the entry or the changed generation makes us remove it.
+	private void put(QueryKey key, Entry entry, long generation) {
+		this.cache.put(key, entry);
+		if (this.generation.get() != generation) {
+			this.cache.asMap().remove(key, entry);
+		}
+	}
+
+	@Nullable
+	private Entry findSimilar(QueryKey key, float[] embedding) {
+		Entry best = null;
+		double bestSimilarity = this.similarityThreshold;
+		for (Map.Entry<QueryKey, Entry> candidate : this.cache.asMap().entrySet()) {
+			float[] other = candidate.getValue().embedding();
+			if (other == null || !candidate.getKey().sameSearch(key)) {
+				continue;
+			}
+			double similarity = cosineSimilarity(embedding, other);
+			if (similarity >= bestSimilarity) {
+				bestSimilarity = similarity;
+				best = candidate.getValue();
+			}
+		}
+		return best;
+	}
+
+	private static double cosineSimilarity(float[] a, float[] b) {
+		if (a.length != b.length) {
+			return -1;
+		}
+		double dot = 0, normA = 0, normB = 0;
+		for (int i = 0; i < a.length; i++) {
+			dot += a[i] * b[i];
+			normA += a[i] * a[i];
+			normB += b[i] * b[i];
+		}
+		return (normA == 0 || normB == 0) ? -1 : dot / Math.sqrt(normA * normB);
+	}
+
+	static String normalize(String query) {
+		String normalized = WHITESPACE.matcher(query.strip().toLowerCase(Locale.ROOT)).replaceAll(" ");
+		int end = normalized.length();
+		while (end > 0 && ".?!".indexOf(normalized.charAt(end - 1)) >= 0) {
+			end--;
+		}
+		return normalized.substring(0, end);
+	}
+
+	private record QueryKey(String query, int topK, double similarityThreshold,
+			@Nullable Filter.Expression filterExpression) {
+
+		static QueryKey of(SearchRequest request) {
+			return new QueryKey(normalize(request.getQuery()), request.getTopK(), request.getSimilarityThreshold(),
+					request.getFilterExpression());
+		}
+
+		boolean sameSearch(QueryKey other) {
+			return this.topK == other.topK && this.similarityThreshold == other.similarityThreshold
+					&& Objects.equals(this.filterExpression, other.filterExpression);
+		}
+
+	}
+
+	private record Entry(@Nullable float[] embedding, List<Document> documents) {
+	}
+
+	private final class CachingVectorStore implements VectorStore {
+
+		private final VectorStore delegate;
+
+		CachingVectorStore(VectorStore delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public String getName() {
+			return this.delegate.getName();
+		}
+
+		@Override
+		public void add(List<Document> documents) {
+			this.delegate.add(documents);
+			invalidate();
+		}
+
+		@Override
+		public void delete(List<String> idList) {
+			this.delegate.delete(idList);
+			invalidate();
+		}
+
+		@Override
+		public void delete(Filter.Expression filterExpression) {
+			this.delegate.delete(filterExpression);
+			invalidate();
+		}
+
+		@Override
+		public List<Document> similaritySearch(SearchRequest request) {
+			return search(this.delegate, request);
+		}
+
+		@Override
+		public <T> Optional<T> getNativeClient() {
+			return this.delegate.getNativeClient();
+		}
+
+	}
+
+}
@@ -0,0 +1,58 @@
+package ai.spring.demo.ai.playground.services;
+
+import ai.spring.demo.ai.playground.data.BookingStatus;
+import org.springframework.ai.tool.annotation.Tool;
+import org.springframework.ai.tool.annotation.ToolParam;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.time.LocalDate;
+import java.util.Locale;
+
+/**
+ * Tools for staff, e.g. an operations client. They list the bookings of all customers,
+ * with the names and booking numbers that {@link BookingTools} accepts as proof of a
+ * booking, so they must never be given to {@link CustomerSupportAssistant}.
+ */
+@Service
+public class BackOfficeBookingTools {
+
+	// Keeps a page of query results small enough for the model context
+	private static final int MAX_PAGE_SIZE = 50;
+
+	private final FlightBookingService flightBookingService;
+
+	@Autowired
+	public BackOfficeBookingTools(FlightBookingService flightBookingService) {
+		this.flightBookingService = flightBookingService;
+	}
+
+	@Tool(description = "Find bookings by departure date range, route and status, one page at a time. "
+			+ "Pass the returned nextCursor to get the next page; it is null on the last page.")
+	public BookingPage findBookings(
+			@ToolParam(required = false, description = "First departure date (yyyy-MM-dd)") String firstDate,
+			@ToolParam(required = false, description = "Last departure date, inclusive (yyyy-MM-dd)") String lastDate,
+			@ToolParam(required = false, description = "Origin airport code") String from,
+			@ToolParam(required = false, description = "Destination airport code") String to,
+			@ToolParam(required = false, description = "CONFIRMED, COMPLETED or CANCELLED") String status,
+			@ToolParam(required = false, description = "Cursor of the previous page") String cursor,
+			@ToolParam(required = false, description = "Page size, at most " + MAX_PAGE_SIZE) Integer limit) {
+		var query = new BookingQuery(date(firstDate), date(lastDate), text(from), text(to),
+				StringUtils.hasText(status) ? BookingStatus.valueOf(status.strip().toUpperCase(Locale.ROOT)) : null);
+		int pageSize = limit == null || limit <= 0 ? MAX_PAGE_SIZE : Math.min(limit, MAX_PAGE_SIZE);
+		return flightBookingService.queryBookings(query, text(cursor), pageSize);
+	}
+
+	@Nullable
+	private static LocalDate date(@Nullable String date) {
+		return StringUtils.hasText(date) ? LocalDate.parse(date.strip()) : null;
+	}
+
+	@Nullable
+	private static String text(@Nullable String value) {
+		return StringUtils.hasText(value) ? value : null;
+	}
+
+}
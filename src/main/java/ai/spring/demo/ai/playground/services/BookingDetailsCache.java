@@ -0,0 +1,89 @@
+package ai.spring.demo.ai.playground.services;
+
+import ai.spring.demo.ai.playground.data.BookingData;
+import ai.spring.demo.ai.playground.data.BookingDetails;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * Read-through cache of {@link BookingDetails} by booking number.
+ * <p>
+ * Concurrent lookups of the same booking share a single load: the first caller loads,
+ * the others wait for its result. Entries are dropped by
+ * {@link #invalidate(String)} after every change of the booking, which also drops a
+ * load still in flight so that it cannot put stale details back. Failed loads (unknown
+ * booking numbers) are not cached.
+ */
+class BookingDetailsCache {
+
+	private final AsyncCache<String, BookingDetails> cache;
+
+	private final Counter hits;
+
+	private final Counter misses;
+
+	private final Counter coalesced;
+
+	BookingDetailsCache(long maxSize, MeterRegistry meterRegistry) {
+		this.cache = Caffeine.newBuilder().maximumSize(maxSize).buildAsync();
+		this.hits = meterRegistry.counter("booking.details.cache", "result", "hit");
+		this.misses = meterRegistry.counter("booking.details.cache", "result", "miss");
+		this.coalesced = meterRegistry.counter("booking.details.cache", "result", "coalesced");
+		Gauge.builder("booking.details.cache.hit.ratio", this, BookingDetailsCache::hitRatio)
+			.description("Share of booking details lookups served without loading, including coalesced ones")
+			.register(meterRegistry);
+	}
+
+	/**
+	 * Returns the cached details of the booking, loading them if needed.
+	 * @param bookingNumber the booking number, in any case
+	 * @param loader loads the details by normalized booking number
+	 */
+	BookingDetails get(String bookingNumber, Function<String, BookingDetails> loader) {
+		String key = BookingData.normalizeBookingNumber(bookingNumber);
+		var created = new CompletableFuture<BookingDetails>();
+		var existing = this.cache.asMap().putIfAbsent(key, created);
+		if (existing == null) {
+			this.misses.increment();
+			try {
+				BookingDetails details = loader.apply(key);
+				created.complete(details);
+				return details;
+			}
+			catch (RuntimeException e) {
+				created.completeExceptionally(e);
+				throw e;
+			}
+		}
+		(existing.isDone() ? this.hits : this.coalesced).increment();
+		try {
+			return existing.join();
+		}
+		catch (CompletionException e) {
+			throw e.getCause() instanceof RuntimeException cause ? cause : e;
+		}
+	}
+
+	/**
+	 * Drops the cached details of the booking. Must be called after the change is visible
+	 * in the booking store.
+	 */
+	void invalidate(String bookingNumber) {
+		this.cache.asMap().remove(BookingData.normalizeBookingNumber(bookingNumber));
+	}
+
+	private double hitRatio() {
+		double served = this.hits.count() + this.coalesced.count();
+		double total = served + this.misses.count();
+		return total == 0 ? 0 : served / total;
+	}
+
+}
@@ -0,0 +1,15 @@
+package ai.spring.demo.ai.playground.services;
+
+import ai.spring.demo.ai.playground.data.BookingDetails;
+import org.springframework.lang.Nullable;
+
+import java.util.List;
+
+/**
+ * One page of the results of a {@link BookingQuery}.
+ * @param bookings the bookings of the page
+ * @param nextCursor pass to the next call to get the following page, {@code null} if
+ * this is the last page
+ */
+public record BookingPage(List<BookingDetails> bookings, @Nullable String nextCursor) {
+}
@@ -0,0 +1,46 @@
+package ai.spring.demo.ai.playground.services;
+
+import ai.spring.demo.ai.playground.data.Booking;
+import ai.spring.demo.ai.playground.data.BookingStatus;
+import org.springframework.lang.Nullable;
+
+import java.time.LocalDate;
+
+/**
+ * Selects bookings by departure date range, route and status. Every criterion is
+ * optional; {@link #ALL} selects every booking.
+ * @param firstDate the first departure date, or {@code null} for no lower bound
+ * @param lastDate the last departure date (inclusive), or {@code null} for no upper bound
+ * @param from the origin airport code, or {@code null} for any
+ * @param to the destination airport code, or {@code null} for any
+ * @param status the booking status, or {@code null} for any
+ */
+public record BookingQuery(@Nullable LocalDate firstDate, @Nullable LocalDate lastDate, @Nullable String from,
+		@Nullable String to, @Nullable BookingStatus status) {
+
+	public static final BookingQuery ALL = new BookingQuery(null, null, null, null, null);
+
+	/**
+	 * Bookings departing from today up to the given number of days ahead, e.g. 2 for
+	 * those within the cancellation window.
+	 */
+	public static BookingQuery departingWithin(int days) {
+		LocalDate today = LocalDate.now();
+		return new BookingQuery(today, today.plusDays(days), null, null, null);
+	}
+
+	boolean isIndexed() {
+		return firstDate != null || lastDate != null || from != null || to != null;
+	}
+
+	boolean matches(Booking.Snapshot snapshot) {
+		return (firstDate == null || !snapshot.date().isBefore(firstDate))
+				&& (lastDate == null || !snapshot.date().isAfter(lastDate)) && sameAirport(from, snapshot.from())
+				&& sameAirport(to, snapshot.to()) && (status == null || status == snapshot.bookingStatus());
+	}
+
+	private static boolean sameAirport(@Nullable String code, String airport) {
+		return code == null || code.strip().equalsIgnoreCase(airport.strip());
+	}
+
+}
@@ -0,0 +1,35 @@
+package ai.spring.demo.ai.playground.services;
+
+import org.springframework.lang.Nullable;
+
+import java.util.List;
+
+/**
+ * Outcome of a bulk operation of {@link FlightBookingService}, one item per requested
+ * booking in request order.
+ */
+public record BulkResult(List<Item> items) {
+
+	public enum Outcome {
+
+		CHANGED, UNCHANGED, FAILED
+
+	}
+
+	/**
+	 * @param bookingNumber the booking as requested
+	 * @param outcome what happened to it
+	 * @param message why it failed, {@code null} unless failed
+	 */
+	public record Item(String bookingNumber, Outcome outcome, @Nullable String message) {
+	}
+
+	public long count(Outcome outcome) {
+		return items.stream().filter(item -> item.outcome() == outcome).count();
+	}
+
+	public List<Item> failures() {
+		return items.stream().filter(item -> item.outcome() == Outcome.FAILED).toList();
+	}
+
+}
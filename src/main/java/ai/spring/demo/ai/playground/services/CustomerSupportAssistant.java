@@ -16,6 +16,11 @@
 
 package ai.spring.demo.ai.playground.services;
 
+import ai.spring.demo.ai.playground.chat.AdmissionController;
+import ai.spring.demo.ai.playground.chat.AdmissionRejectedException;
+import ai.spring.demo.ai.playground.chat.StreamMetrics;
+import ai.spring.demo.ai.playground.chat.TokenBudgetAdvisor;
+import ai.spring.demo.ai.playground.rag.RetrievalCache;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
 import org.springframework.ai.chat.client.advisor.vectorstore.QuestionAnswerAdvisor;
@@ -34,13 +39,26 @@ public class CustomerSupportAssistant {
 
 	private final ChatClient chatClient;
 
+	private final ChatMemory chatMemory;
+
+	private final AdmissionController admissionController;
+
+	private final StreamMetrics streamMetrics;
+
 	// @formatter:off
 	public CustomerSupportAssistant(
 		ChatClient.Builder chatClientBuilder,
 		BookingTools bookingTools,
 		VectorStore vectorStore,
-		ChatMemory chatMemory
+		RetrievalCache retrievalCache,
+		TokenBudgetAdvisor tokenBudgetAdvisor,
+		ChatMemory chatMemory,
+		AdmissionController admissionController,
+		StreamMetrics streamMetrics
 	) {
+		this.chatMemory = chatMemory;
+		this.admissionController = admissionController;
+		this.streamMetrics = streamMetrics;
 		this.chatClient = chatClientBuilder
 				.defaultSystem("""
 						You are a customer chat support agent of an airline named "Funnair"."
@@ -56,21 +74,34 @@ public class CustomerSupportAssistant {
 					""")	
 				.defaultAdvisors(
 					MessageChatMemoryAdvisor.builder(chatMemory).build(),
-					QuestionAnswerAdvisor.builder(vectorStore).build()
+					QuestionAnswerAdvisor.builder(retrievalCache.decorate(vectorStore)).build(),
+					tokenBudgetAdvisor
 				)	
+				.defaultAdvisors(streamMetrics.advisors())
 				.defaultTools(bookingTools)
 				.build();
 	}
 
 	public Flux<String> chat(String chatId, String userMessage, Object... additionalTools) {
 
-		return this.chatClient.prompt()
-			.user(userMessage)
-			.tools(additionalTools)
-			.advisors(a -> a.param(ChatMemory.CONVERSATION_ID, chatId))
-			.stream()
-			.content();	
+		// Sessions already in a conversation are admitted before new ones
+		boolean continuing = !this.chatMemory.get(chatId).isEmpty();
+		return this.admissionController.admit(chatId, continuing, () -> this.chatClient.prompt()
+				.user(userMessage)
+				.tools(additionalTools)
+				.advisors(a -> a.param(ChatMemory.CONVERSATION_ID, chatId))
+				.stream()
+				.content())
+			.transform(this.streamMetrics::instrument)
+			.onErrorResume(AdmissionRejectedException.class, e -> Flux.just(e.getMessage()));
 	}
 	// @formatter:on
 
+	/**
+	 * Forgets the conversation, e.g. when the user leaves the chat.
+	 */
+	public void endConversation(String chatId) {
+		this.chatMemory.clear(chatId);
+	}
+
 }
\ No newline at end of file
@@ -1,26 +1,143 @@
 package ai.spring.demo.ai.playground.services;
 
 import ai.spring.demo.ai.playground.data.*;
+import ai.spring.demo.ai.playground.data.SeatInventory.Flight;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Random;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 @Service
 public class FlightBookingService {
 
+	private static final long DETAILS_CACHE_SIZE = 10_000;
+
+	// Bookings per parallel task of a bulk operation
+	private static final int BULK_PARTITION_SIZE = 1024;
+
+	private static final Pattern AIRPORT_CODE = Pattern.compile("[A-Z]{3}");
+
 	// -----------------------------
 	// Booking Database
 	// -----------------------------
 	private final BookingData db;
 
+	private final SeatInventory seatInventory;
+
+	// Null if disabled: queries then scan all bookings
+	@Nullable
+	private final BookingIndex bookingIndex;
+
+	// Serializes the index updates of bookings moving to another flight, see move()
+	private final Object[] moveLocks = IntStream.range(0, 64).mapToObj(i -> new Object()).toArray();
+
+	@Nullable
+	private final BookingJournal journal;
+
+	private final BookingDetailsCache detailsCache;
+
+	private final Sinks.Many<BookingDetails> changes = Sinks.many().multicast().directBestEffort();
+
+	private final Counter droppedChanges;
+
 	public FlightBookingService() {
 		db = new BookingData();
+		seatInventory = new SeatInventory();
+		bookingIndex = new BookingIndex();
+		journal = null;
+		detailsCache = new BookingDetailsCache(DETAILS_CACHE_SIZE, Metrics.globalRegistry);
+		droppedChanges = droppedChanges(Metrics.globalRegistry);
 
 		initDemoData();
+		seatInventory.load(db.getBookings());
+		bookingIndex.load(db.getBookings());
+	}
+
+	@Autowired
+	public FlightBookingService(@Value("${booking.store.compact:false}") boolean compact,
+			@Value("${booking.store.query-index.enabled:true}") boolean queryIndex,
+			@Value("${booking.store.persistence.enabled:false}") boolean persistent,
+			@Value("${booking.store.persistence.directory:./data/bookings}") Path directory,
+			@Value("${booking.store.persistence.group-commit-interval:10ms}") Duration groupCommitInterval,
+			@Value("${booking.store.persistence.snapshot-interval:5m}") Duration snapshotInterval,
+			@Value("${booking.details.cache.max-size:10000}") long detailsCacheSize, MeterRegistry meterRegistry) {
+		db = compact ? new CompactBookingData() : new BookingData();
+		seatInventory = new SeatInventory();
+		bookingIndex = queryIndex ? new BookingIndex() : null;
+		detailsCache = new BookingDetailsCache(detailsCacheSize, meterRegistry);
+		droppedChanges = droppedChanges(meterRegistry);
+
+		if (!persistent) {
+			journal = null;
+			initDemoData();
+		}
+		else {
+			journal = BookingJournal.open(directory, groupCommitInterval);
+			if (!journal.recover(db)) {
+				initDemoData();
+			}
+			// Compact whatever was replayed (or the fresh demo data) into a new snapshot
+			journal.snapshot(db);
+			journal.scheduleSnapshots(db, snapshotInterval);
+		}
+		seatInventory.load(db.getBookings());
+		if (bookingIndex != null) {
+			bookingIndex.load(db.getBookings());
+		}
+	}
+
+	// Serves a prepared booking store, e.g. for benchmarks
+	FlightBookingService(BookingData db) {
+		this.db = db;
+		this.seatInventory = new SeatInventory();
+		this.bookingIndex = new BookingIndex();
+		this.journal = null;
+		this.detailsCache = new BookingDetailsCache(DETAILS_CACHE_SIZE, Metrics.globalRegistry);
+		this.droppedChanges = droppedChanges(Metrics.globalRegistry);
+		seatInventory.load(db.getBookings());
+		bookingIndex.load(db.getBookings());
+	}
+
+	private static Counter droppedChanges(MeterRegistry meterRegistry) {
+		return Counter.builder("booking.changes.dropped")
+			.description("Change events that could not be published, the change itself was applied")
+			.register(meterRegistry);
+	}
+
+	@PreDestroy
+	void close() {
+		if (journal != null) {
+			journal.close();
+		}
 	}
 
 	private void initDemoData() {
@@ -38,7 +155,7 @@ public class FlightBookingService {
 			String lastName = lastNames.get(i);
 			String from = airportCodes.get(random.nextInt(airportCodes.size()));
 			String to = airportCodes.get(random.nextInt(airportCodes.size()));
-			String seatNumber = (random.nextInt(19) + 1) + "A";
+			String seatNumber = (random.nextInt(SeatInventory.ROWS) + 1) + "A";
 			BookingClass bookingClass = BookingClass.values()[random.nextInt(BookingClass.values().length)];
 			Customer customer = new Customer();
 			customer.setFirstName(firstName);
@@ -66,49 +183,538 @@ public class FlightBookingService {
 		return db.getBookings().stream().map(this::toBookingDetails).toList();
 	}
 
-	private Booking findBooking(String bookingNumber, String firstName, String lastName) {
-		return db.getBookings()
+	/**
+	 * Returns one page of bookings, e.g. for a lazy loading grid. Only the bookings on
+	 * the page are mapped to {@link BookingDetails}. With a sort order, the matching
+	 * bookings are compared by their state and only the first {@code offset + limit} of
+	 * them are kept; ties are broken by booking number, so pages neither repeat nor skip
+	 * bookings.
+	 * @param filter text to look for in the booking number, customer name or airports,
+	 * or {@code null} for all bookings
+	 * @param order the sort order, or {@code null} for store order
+	 * @param offset index of the first booking to return
+	 * @param limit maximum number of bookings to return
+	 */
+	public List<BookingDetails> getBookings(@Nullable String filter, @Nullable Comparator<Booking.Snapshot> order,
+			int offset, int limit) {
+		return getBookings(filter, BookingQuery.ALL, order, offset, limit);
+	}
+
+	/**
+	 * Returns one page of the bookings matching both the text filter and the query.
+	 * Without a sort order, bookings come in store order if the query has no date or
+	 * route criteria, in index order otherwise.
+	 * @see #getBookings(String, Comparator, int, int)
+	 */
+	public List<BookingDetails> getBookings(@Nullable String filter, BookingQuery query,
+			@Nullable Comparator<Booking.Snapshot> order, int offset, int limit) {
+		var matching = bookings(query).filter(matcher(filter));
+		if (order == null) {
+			return matching.skip(offset).limit(limit).map(this::toBookingDetails).toList();
+		}
+		if (limit <= 0) {
+			return List.of();
+		}
+		int size = (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+		// The first bookings in sort order, in a heap with the last of them on top
+		Comparator<Ranked> ranking = Comparator.comparing(Ranked::snapshot, order)
+			.thenComparing(ranked -> ranked.booking().getBookingNumber());
+		var first = new PriorityQueue<Ranked>(Math.min(size, 1024), ranking.reversed());
+		matching.forEach(booking -> {
+			var ranked = new Ranked(booking, booking.snapshot());
+			if (first.size() < size) {
+				first.add(ranked);
+			}
+			else if (ranking.compare(ranked, first.peek()) < 0) {
+				first.poll();
+				first.add(ranked);
+			}
+		});
+		return first.stream()
+			.sorted(ranking)
+			.skip(offset)
+			.map(ranked -> toBookingDetails(ranked.booking(), ranked.snapshot()))
+			.toList();
+	}
+
+	private record Ranked(Booking booking, Booking.Snapshot snapshot) {
+	}
+
+	/**
+	 * Returns the number of bookings matching the filter.
+	 * @see #getBookings(String, Comparator, int, int)
+	 */
+	public int countBookings(@Nullable String filter) {
+		return countBookings(filter, BookingQuery.ALL);
+	}
+
+	/**
+	 * Returns the number of bookings matching both the text filter and the query.
+	 * @see #getBookings(String, BookingQuery, Comparator, int, int)
+	 */
+	public int countBookings(@Nullable String filter, BookingQuery query) {
+		if (!StringUtils.hasText(filter) && query.equals(BookingQuery.ALL)) {
+			return db.getBookings().size();
+		}
+		return (int) bookings(query).filter(matcher(filter)).count();
+	}
+
+	/**
+	 * Streams the bookings matching the query: ordered by route and date if an origin is
+	 * given, by date otherwise. The bookings are read from the date and route indexes,
+	 * so the cost grows with the number of results rather than the number of bookings.
+	 * Without the indexes all bookings are scanned and the matching ones sorted.
+	 * The stream is lazy; bookings changed while it is consumed are returned as they are
+	 * when reached, or skipped if they no longer match.
+	 */
+	public Stream<BookingDetails> queryBookings(BookingQuery query) {
+		return matches(query, null).map(match -> toBookingDetails(match.booking(), match.snapshot()));
+	}
+
+	/**
+	 * Returns one page of the bookings matching the query, in the order of
+	 * {@link #queryBookings(BookingQuery)}. The cursor is the position after the last
+	 * booking of the previous page, so pages neither repeat nor skip bookings when others
+	 * are added or changed in between.
+	 * @param cursor the {@link BookingPage#nextCursor()} of the previous page, or
+	 * {@code null} for the first page
+	 * @param limit maximum number of bookings on the page
+	 * @throws IllegalArgumentException if the cursor is not valid
+	 */
+	public BookingPage queryBookings(BookingQuery query, @Nullable String cursor, int limit) {
+		if (limit <= 0) {
+			throw new IllegalArgumentException("The page size must be positive.");
+		}
+		var matches = matches(query, cursor != null ? parseCursor(cursor) : null).limit(limit + 1L).toList();
+		var page = matches.subList(0, Math.min(limit, matches.size()));
+		var bookings = page.stream().map(match -> toBookingDetails(match.booking(), match.snapshot())).toList();
+		String next = matches.size() > limit ? cursor(page.get(page.size() - 1).key()) : null;
+		return new BookingPage(bookings, next);
+	}
+
+	// Without date or route criteria the index does not narrow anything down, so the
+	// store order of the unfiltered grid is kept
+	private Stream<Booking> bookings(BookingQuery query) {
+		if (!query.isIndexed()) {
+			return db.getBookings().stream().filter(booking -> query.matches(booking.snapshot()));
+		}
+		return matches(query, null).map(Match::booking);
+	}
+
+	// Index entries are only candidates: each is checked against the current state of
+	// the booking. Entries left behind by a booking moving to another flight are skipped,
+	// the booking itself is found under its new flight.
+	private Stream<Match> matches(BookingQuery query, @Nullable BookingIndex.Key after) {
+		if (bookingIndex == null) {
+			return scan(query, after);
+		}
+		return bookingIndex.find(query.from(), query.to(), query.firstDate(), query.lastDate(), after)
 			.stream()
-			.filter(b -> b.getBookingNumber().equalsIgnoreCase(bookingNumber))
-			.filter(b -> b.getCustomer().getFirstName().equalsIgnoreCase(firstName))
-			.filter(b -> b.getCustomer().getLastName().equalsIgnoreCase(lastName))
-			.findFirst()
-			.orElseThrow(() -> new IllegalArgumentException("Booking not found"));
+			.<Match>mapMulti((key, matches) -> {
+				var booking = db.findBooking(key.bookingNumber());
+				if (booking == null) {
+					return;
+				}
+				var s = booking.snapshot();
+				if (Flight.of(s).equals(key.flight()) && query.matches(s)) {
+					matches.accept(new Match(key, booking, s));
+				}
+			});
+	}
+
+	// The same order and cursor positions as the index, at the cost of a full scan
+	private Stream<Match> scan(BookingQuery query, @Nullable BookingIndex.Key after) {
+		Comparator<BookingIndex.Key> order = BookingIndex.order(query.from());
+		return db.getBookings().stream().<Match>mapMulti((booking, matches) -> {
+			var s = booking.snapshot();
+			var key = new BookingIndex.Key(Flight.of(s), booking.getBookingNumber());
+			if (query.matches(s) && (after == null || order.compare(key, after) > 0)) {
+				matches.accept(new Match(key, booking, s));
+			}
+		}).sorted(Comparator.comparing(Match::key, order));
+	}
+
+	private record Match(BookingIndex.Key key, Booking booking, Booking.Snapshot snapshot) {
+	}
+
+	private static String cursor(BookingIndex.Key key) {
+		Flight flight = key.flight();
+		String position = flight.date() + "/" + flight.from() + "/" + flight.to() + "/" + key.bookingNumber();
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static BookingIndex.Key parseCursor(String cursor) {
+		try {
+			String position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+			String[] parts = position.split("/", 4);
+			if (parts.length == 4) {
+				return new BookingIndex.Key(new Flight(parts[1], parts[2], LocalDate.parse(parts[0])), parts[3]);
+			}
+		}
+		catch (IllegalArgumentException | DateTimeParseException e) {
+			// Reported below
+		}
+		throw new IllegalArgumentException("Invalid cursor: " + cursor);
+	}
+
+	/**
+	 * Stream of bookings as they are after each change, for views that keep bookings on
+	 * screen. Slow subscribers miss changes rather than hold up the booking service.
+	 */
+	public Flux<BookingDetails> bookingChanges() {
+		return changes.asFlux();
+	}
+
+	private static Predicate<Booking> matcher(@Nullable String filter) {
+		if (!StringUtils.hasText(filter)) {
+			return booking -> true;
+		}
+		String text = filter.strip().toLowerCase(Locale.ROOT);
+		return booking -> {
+			var s = booking.snapshot();
+			return contains(booking.getBookingNumber(), text) || contains(booking.getCustomer().getFirstName(), text)
+					|| contains(booking.getCustomer().getLastName(), text) || contains(s.from(), text)
+					|| contains(s.to(), text);
+		};
+	}
+
+	private static boolean contains(String value, String lowerCaseText) {
+		return value != null && value.toLowerCase(Locale.ROOT).contains(lowerCaseText);
+	}
+
+	private Booking findBooking(String bookingNumber, String firstName, String lastName) {
+		var booking = db.findBooking(bookingNumber);
+		if (booking == null || !booking.getCustomer().getFirstName().equalsIgnoreCase(firstName)
+				|| !booking.getCustomer().getLastName().equalsIgnoreCase(lastName)) {
+			throw new IllegalArgumentException("Booking not found");
+		}
+		return booking;
 	}
 
 	public BookingDetails getBookingDetails(String bookingNumber, String firstName, String lastName) {
-		var booking = findBooking(bookingNumber, firstName, lastName);
-		return toBookingDetails(booking);
+		// One cache entry per booking serves every caller; the name check is repeated on
+		// each lookup so a wrong name never gets the cached details.
+		var details = detailsCache.get(bookingNumber, number -> {
+			var booking = db.findBooking(number);
+			if (booking == null) {
+				throw new IllegalArgumentException("Booking not found");
+			}
+			return toBookingDetails(booking);
+		});
+		if (!details.firstName().equalsIgnoreCase(firstName) || !details.lastName().equalsIgnoreCase(lastName)) {
+			throw new IllegalArgumentException("Booking not found");
+		}
+		return details;
 	}
 
 	public void changeBooking(String bookingNumber, String firstName, String lastName, String newDate, String from,
 			String to) {
 		var booking = findBooking(bookingNumber, firstName, lastName);
-		if (booking.getDate().isBefore(LocalDate.now().plusDays(1))) {
-			throw new IllegalArgumentException("Booking cannot be changed within 24 hours of the start date.");
+		if (change(booking, LocalDate.parse(newDate), from, to)) {
+			bookingChanged(booking);
 		}
-		booking.setDate(LocalDate.parse(newDate));
-		booking.setFrom(from);
-		booking.setTo(to);
 	}
 
 	public void cancelBooking(String bookingNumber, String firstName, String lastName) {
 		var booking = findBooking(bookingNumber, firstName, lastName);
-		if (booking.getDate().isBefore(LocalDate.now().plusDays(2))) {
-			throw new IllegalArgumentException("Booking cannot be cancelled within 48 hours of the start date.");
+		if (cancel(booking)) {
+			bookingChanged(booking);
+		}
+	}
+
+	// Validate and apply against the same snapshot so concurrent changes cannot slip in
+	// between the check and the update. The seat moves to the new flight, or to the first
+	// free seat there if it is already taken. A state the store cannot hold is rejected
+	// before the seat is allocated. Returns false if nothing changed.
+	private boolean change(Booking booking, LocalDate date, String from, String to) {
+		while (true) {
+			var current = booking.snapshot();
+			if (current.date().isBefore(LocalDate.now().plusDays(1))) {
+				throw new IllegalArgumentException("Booking cannot be changed within 24 hours of the start date.");
+			}
+			var next = current.withDate(date).withRoute(from, to);
+			if (next.equals(current)) {
+				return false;
+			}
+			checkAirport(next.from());
+			checkAirport(next.to());
+			db.checkStorable(next);
+			if (current.bookingStatus() == BookingStatus.CANCELLED || Flight.of(next).equals(Flight.of(current))) {
+				if (move(booking, current, next)) {
+					return true;
+				}
+				continue;
+			}
+			String seat = allocateOnFlight(Flight.of(next), current.seatNumber());
+			boolean moved = false;
+			try {
+				moved = move(booking, current, next.withSeatNumber(seat));
+			}
+			finally {
+				if (!moved) {
+					seatInventory.release(Flight.of(next), seat);
+				}
+			}
+			seatInventory.release(Flight.of(current), current.seatNumber());
+			return true;
+		}
+	}
+
+	// Airport codes end up in the booking store, and the compact one keeps a dictionary
+	// of them, so codes that cannot be IATA codes are rejected up front.
+	private static void checkAirport(@Nullable String code) {
+		if (code == null || !AIRPORT_CODE.matcher(code).matches()) {
+			throw new IllegalArgumentException("Invalid airport code: " + code);
+		}
+	}
+
+	// Replaces the state of a booking that may move to another flight. The booking is
+	// indexed under the new flight before the change becomes visible and removed from the
+	// old one after, so queries never miss it. Moves of the same booking are serialized:
+	// a losing move must not remove the entry the winning move just added.
+	private boolean move(Booking booking, Booking.Snapshot current, Booking.Snapshot next) {
+		var from = Flight.of(current);
+		var to = Flight.of(next);
+		if (from.equals(to) || bookingIndex == null) {
+			return booking.compareAndSet(current, next);
+		}
+		String number = booking.getBookingNumber();
+		synchronized (moveLocks[Math.floorMod(number.hashCode(), moveLocks.length)]) {
+			bookingIndex.add(number, to);
+			boolean moved = false;
+			try {
+				moved = booking.compareAndSet(current, next);
+			}
+			finally {
+				if (moved) {
+					bookingIndex.remove(number, from);
+				}
+				else if (!Flight.of(booking.snapshot()).equals(to)) {
+					bookingIndex.remove(number, to);
+				}
+			}
+			return moved;
+		}
+	}
+
+	private boolean cancel(Booking booking) {
+		while (true) {
+			var current = booking.snapshot();
+			if (current.date().isBefore(LocalDate.now().plusDays(2))) {
+				throw new IllegalArgumentException("Booking cannot be cancelled within 48 hours of the start date.");
+			}
+			if (current.bookingStatus() == BookingStatus.CANCELLED) {
+				return false;
+			}
+			if (booking.compareAndSet(current, current.withBookingStatus(BookingStatus.CANCELLED))) {
+				seatInventory.release(Flight.of(current), current.seatNumber());
+				return true;
+			}
 		}
-		booking.setBookingStatus(BookingStatus.CANCELLED);
 	}
 
 	private BookingDetails toBookingDetails(Booking booking) {
+		return toBookingDetails(booking, booking.snapshot());
+	}
+
+	private static BookingDetails toBookingDetails(Booking booking, Booking.Snapshot s) {
 		return new BookingDetails(booking.getBookingNumber(), booking.getCustomer().getFirstName(),
-				booking.getCustomer().getLastName(), booking.getDate(), booking.getBookingStatus(), booking.getFrom(),
-				booking.getTo(), booking.getSeatNumber(), booking.getBookingClass().toString());
+				booking.getCustomer().getLastName(), s.date(), s.bookingStatus(), s.from(), s.to(), s.seatNumber(),
+				s.bookingClass().toString());
 	}
 
 	public void changeSeat(String bookingNumber, String firstName, String lastName, String seatNumber) {
 		var booking = findBooking(bookingNumber, firstName, lastName);
-		booking.setSeatNumber(seatNumber);
+		if (reseat(booking, seatNumber)) {
+			bookingChanged(booking);
+		}
+	}
+
+	private boolean reseat(Booking booking, String seatNumber) {
+		while (true) {
+			var current = booking.snapshot();
+			if (current.seatNumber().equalsIgnoreCase(seatNumber)) {
+				return false;
+			}
+			if (current.bookingStatus() == BookingStatus.CANCELLED) {
+				throw new IllegalArgumentException("Cannot change the seat of a cancelled booking.");
+			}
+			var flight = Flight.of(current);
+			if (!seatInventory.allocate(flight, seatNumber)) {
+				throw new IllegalArgumentException("Seat " + seatNumber + " is already taken.");
+			}
+			if (booking.compareAndSet(current, current.withSeatNumber(seatNumber))) {
+				seatInventory.release(flight, current.seatNumber());
+				return true;
+			}
+			// Another change won the race, undo the allocation and retry
+			seatInventory.release(flight, seatNumber);
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the occupied seats on the flight of the given booking.
+	 */
+	public BitSet getOccupiedSeats(String bookingNumber, String firstName, String lastName) {
+		var booking = findBooking(bookingNumber, firstName, lastName);
+		return seatInventory.occupancy(Flight.of(booking.snapshot()));
+	}
+
+	// -----------------------------
+	// Bulk operations (back office)
+	// -----------------------------
+
+	/**
+	 * Moves the selected bookings to a new date and, optionally, a new route. Every
+	 * booking is validated on its own (no changes within 24 hours of departure), so some
+	 * can fail while the others are changed.
+	 * @param selection selects the bookings by their current state
+	 * @param newDate the new departure date
+	 * @param from the new origin, or {@code null} to keep it
+	 * @param to the new destination, or {@code null} to keep it
+	 */
+	public BulkResult changeBookings(Predicate<Booking.Snapshot> selection, LocalDate newDate, @Nullable String from,
+			@Nullable String to) {
+		return changeBookings(select(selection), newDate, from, to);
+	}
+
+	/**
+	 * Moves the given bookings to a new date and, optionally, a new route.
+	 * @see #changeBookings(Predicate, LocalDate, String, String)
+	 */
+	public BulkResult changeBookings(List<String> bookingNumbers, LocalDate newDate, @Nullable String from,
+			@Nullable String to) {
+		return bulk(bookingNumbers, Function.identity(), (booking, number) -> {
+			var current = booking.snapshot();
+			return change(booking, newDate, from != null ? from : current.from(), to != null ? to : current.to());
+		});
+	}
+
+	/**
+	 * Cancels the selected bookings, except those departing within 48 hours.
+	 * @param selection selects the bookings by their current state
+	 */
+	public BulkResult cancelBookings(Predicate<Booking.Snapshot> selection) {
+		return cancelBookings(select(selection));
+	}
+
+	/**
+	 * Cancels the given bookings, except those departing within 48 hours.
+	 */
+	public BulkResult cancelBookings(List<String> bookingNumbers) {
+		return bulk(bookingNumbers, Function.identity(), (booking, number) -> cancel(booking));
+	}
+
+	/**
+	 * Assigns new seats, e.g. after an aircraft change. A booking fails if its new seat
+	 * is taken. The items are applied in parallel, so seats freed by one item are not
+	 * guaranteed to be available to another item of the same request.
+	 * @param seatsByBookingNumber the new seat per booking number
+	 */
+	public BulkResult reseatBookings(Map<String, String> seatsByBookingNumber) {
+		return bulk(List.copyOf(seatsByBookingNumber.entrySet()), Map.Entry::getKey,
+				(booking, entry) -> reseat(booking, entry.getValue()));
+	}
+
+	private List<String> select(Predicate<Booking.Snapshot> selection) {
+		return db.getBookings()
+			.parallelStream()
+			.filter(booking -> selection.test(booking.snapshot()))
+			.map(Booking::getBookingNumber)
+			.toList();
+	}
+
+	// The requests are split into partitions that run in parallel, each applying the same
+	// compare-and-set updates as the single booking methods. Change events are published
+	// afterwards from the calling thread: emitting from all partitions at once would only
+	// make them spin on the serialized sink.
+	private <T> BulkResult bulk(List<T> requests, Function<T, String> bookingNumber,
+			BiPredicate<Booking, T> operation) {
+		int partitions = (requests.size() + BULK_PARTITION_SIZE - 1) / BULK_PARTITION_SIZE;
+		List<BulkResult.Item> items = IntStream.range(0, partitions).parallel().mapToObj(p -> {
+			var partition = requests.subList(p * BULK_PARTITION_SIZE,
+					Math.min(requests.size(), (p + 1) * BULK_PARTITION_SIZE));
+			var results = new ArrayList<BulkResult.Item>(partition.size());
+			for (T request : partition) {
+				results.add(apply(bookingNumber.apply(request), request, operation));
+			}
+			return results;
+		}).flatMap(List::stream).toList();
+		// Best effort: the changes are committed, so a failure here must not lose the result
+		if (changes.currentSubscriberCount() > 0) {
+			for (var item : items) {
+				if (item.outcome() != BulkResult.Outcome.CHANGED) {
+					continue;
+				}
+				var booking = db.findBooking(item.bookingNumber());
+				if (booking == null) {
+					continue;
+				}
+				try {
+					publishChange(booking);
+				}
+				catch (RuntimeException e) {
+					droppedChanges.increment();
+				}
+			}
+		}
+		return new BulkResult(items);
+	}
+
+	private <T> BulkResult.Item apply(String bookingNumber, T request, BiPredicate<Booking, T> operation) {
+		var booking = db.findBooking(bookingNumber);
+		if (booking == null) {
+			return new BulkResult.Item(bookingNumber, BulkResult.Outcome.FAILED, "Booking not found");
+		}
+		try {
+			if (!operation.test(booking, request)) {
+				return new BulkResult.Item(bookingNumber, BulkResult.Outcome.UNCHANGED, null);
+			}
+		}
+		catch (IllegalArgumentException e) {
+			return new BulkResult.Item(bookingNumber, BulkResult.Outcome.FAILED, e.getMessage());
+		}
+		persistChange(booking);
+		return new BulkResult.Item(bookingNumber, BulkResult.Outcome.CHANGED, null);
+	}
+
+	private void bookingChanged(Booking booking) {
+		persistChange(booking);
+		publishChange(booking);
+	}
+
+	private void persistChange(Booking booking) {
+		detailsCache.invalidate(booking.getBookingNumber());
+		if (journal != null) {
+			journal.append(booking);
+		}
+	}
+
+	// Runs after the change has been committed, so it must not throw. Emitting under the
+	// lock keeps concurrent changes from failing as non-serialized; the sink drops events
+	// for subscribers that are behind instead of blocking.
+	private void publishChange(Booking booking) {
+		if (changes.currentSubscriberCount() > 0) {
+			var details = toBookingDetails(booking);
+			Sinks.EmitResult result;
+			synchronized (changes) {
+				result = changes.tryEmitNext(details);
+			}
+			if (result.isFailure() && result != Sinks.EmitResult.FAIL_ZERO_SUBSCRIBER) {
+				droppedChanges.increment();
+			}
+		}
+	}
+
+	private String allocateOnFlight(Flight flight, String preferredSeat) {
+		if (SeatInventory.seatIndex(preferredSeat) >= 0 && seatInventory.allocate(flight, preferredSeat)) {
+			return preferredSeat;
+		}
+		String seat = seatInventory.allocateAny(flight);
+		if (seat == null) {
+			throw new IllegalArgumentException("There are no free seats on the requested flight.");
+		}
+		return seat;
 	}
 
 }
@@ -1,127 +1,88 @@
 package ai.spring.demo.ai.playground.ui.component;
 
+import ai.spring.demo.ai.playground.data.SeatInventory;
 import com.vaadin.flow.component.Component;
 import com.vaadin.flow.component.ComponentEvent;
 import com.vaadin.flow.component.ComponentEventListener;
-import com.vaadin.flow.component.Composite;
-import com.vaadin.flow.component.button.Button;
-import com.vaadin.flow.component.html.Div;
-import com.vaadin.flow.component.html.Span;
-import com.vaadin.flow.component.orderedlayout.FlexLayout;
-import com.vaadin.flow.component.orderedlayout.VerticalLayout;
+import com.vaadin.flow.component.DomEvent;
+import com.vaadin.flow.component.EventData;
+import com.vaadin.flow.component.Tag;
+import com.vaadin.flow.component.dependency.JsModule;
 import com.vaadin.flow.shared.Registration;
 
-public class SeatSelector extends Composite<VerticalLayout> {
-    private static final int ROWS = 12;
-    private static final int SEATS_PER_ROW = 6;
-    private static final char[] SEAT_LETTERS = {'A', 'B', 'C', 'D', 'E', 'F'};
+import java.util.BitSet;
+
+/**
+ * Seat map of a flight, rendered in the browser by the {@code seat-map} web component.
+ * <p>
+ * The server side is a single element: the layout and the occupancy go to the client
+ * once as a few properties, and selecting a seat sends back one event with the seat id.
+ */
+@Tag("seat-map")
+@JsModule("./components/seat-map.ts")
+public class SeatSelector extends Component {
+    private static final int AISLE_AFTER = 3;
 
     private String selectedSeat;
-    private final VerticalLayout seatGrid = new VerticalLayout();
+    private final BitSet occupiedSeats;
 
     /**
      * Creates a new SeatSelector component.
      */
     public SeatSelector() {
-        initializeUI();
+        this(null, new BitSet());
     }
 
     /**
      * Creates a new SeatSelector component with a pre-selected seat.
-     * 
+     *
      * @param selectedSeat the initially selected seat (e.g. "1A")
      */
     public SeatSelector(String selectedSeat) {
-        this.selectedSeat = selectedSeat;
-        initializeUI();
-    }
-
-    private void initializeUI() {
-        seatGrid.setPadding(false);
-        seatGrid.setSpacing(false);
-
-        renderSeats();
-
-        getContent().add(seatGrid);
-        getContent().setPadding(false);
-        getContent().setSpacing(false);
+        this(selectedSeat, new BitSet());
     }
 
     /**
-     * Renders the seat grid.
+     * Creates a new SeatSelector component with a pre-selected seat and the seats that are
+     * already taken on the flight.
+     *
+     * @param selectedSeat the initially selected seat (e.g. "1A")
+     * @param occupiedSeats occupancy snapshot indexed by {@link SeatInventory#seatIndex(String)}
      */
-    private void renderSeats() {
-        seatGrid.removeAll();
-
-        for (int row = 1; row <= ROWS; row++) {
-            FlexLayout seatRow = new FlexLayout();
-            seatRow.setAlignItems(FlexLayout.Alignment.CENTER);
-
-            // Add row number
-            Span rowNumber = new Span(String.valueOf(row));
-            rowNumber.getStyle().set("width", "20px");
-            seatRow.add(rowNumber);
-
-            for (int seatIndex = 0; seatIndex < SEATS_PER_ROW; seatIndex++) {
-                char seatLetter = SEAT_LETTERS[seatIndex];
-                String seatId = row + String.valueOf(seatLetter);
-                boolean isSelected = seatId.equals(selectedSeat);
-
-                Button seat = createSeatButton(seatId, seatLetter, isSelected);
-                seatRow.add(seat);
-
-                // Insert aisle after seat C
-                if (seatLetter == 'C') {
-                    Div aisle = new Div();
-                    aisle.getStyle().set("width", "20px");
-                    seatRow.add(aisle);
-                }
-            }
-
-            seatGrid.add(seatRow);
-        }
+    public SeatSelector(String selectedSeat, BitSet occupiedSeats) {
+        this.occupiedSeats = occupiedSeats;
+        getElement().setProperty("rows", SeatInventory.ROWS);
+        getElement().setProperty("letters", SeatInventory.SEAT_LETTERS);
+        getElement().setProperty("aisleAfter", AISLE_AFTER);
+        getElement().setProperty("occupied", encode(occupiedSeats));
+        setSelectedSeat(selectedSeat);
+        addListener(SeatSelectedEvent.class, this::handleSeatClick);
     }
 
-    /**
-     * Creates a button representing a seat.
-     * 
-     * @param seatId the seat identifier (e.g. "1A")
-     * @param seatLetter the seat letter
-     * @param isSelected whether the seat is currently selected
-     * @return the seat button
-     */
-    private Button createSeatButton(String seatId, char seatLetter, boolean isSelected) {
-        Button seat = new Button(String.valueOf(seatLetter));
-        seat.getStyle()
-            .set("width", "30px")
-            .set("height", "30px")
-            .set("margin", "2px")
-            .set("padding", "0")
-            .set("background-color", isSelected ? "blue" : "lightgray")
-            .set("color", isSelected ? "white" : "black")
-            .set("text-align", "center")
-            .set("line-height", "30px")
-            .set("cursor", "pointer");
-
-        seat.addClickListener(event -> handleSeatClick(seatId));
-
-        return seat;
+    // One '0' or '1' per seat, in seat index order
+    private static String encode(BitSet occupiedSeats) {
+        char[] seats = new char[SeatInventory.SEATS];
+        for (int i = 0; i < seats.length; i++) {
+            seats[i] = occupiedSeats.get(i) ? '1' : '0';
+        }
+        return new String(seats);
     }
 
     /**
      * Handles a seat click event.
-     * 
-     * @param seatId the clicked seat identifier
+     *
+     * @param event the seat selected event sent by the client
      */
-    private void handleSeatClick(String seatId) {
-        selectedSeat = seatId;
-        renderSeats(); // Re-render to update the selected seat
-        fireEvent(new SeatSelectedEvent(this, seatId));
+    private void handleSeatClick(SeatSelectedEvent event) {
+        // The client already shows the new selection, only keep the server side in sync
+        if (isFree(event.getSeatId())) {
+            selectedSeat = event.getSeatId();
+        }
     }
 
     /**
      * Gets the currently selected seat.
-     * 
+     *
      * @return the selected seat identifier
      */
     public String getSelectedSeat() {
@@ -130,44 +91,57 @@ public class SeatSelector extends Composite<VerticalLayout> {
 
     /**
      * Sets the selected seat.
-     * 
+     *
      * @param selectedSeat the seat identifier to select
      */
     public void setSelectedSeat(String selectedSeat) {
         this.selectedSeat = selectedSeat;
-        renderSeats(); // Re-render to update the selected seat
+        getElement().setProperty("selected", selectedSeat != null ? selectedSeat : "");
     }
 
     /**
      * Adds a listener for seat selection events.
-     * 
+     *
      * @param listener the listener to add
      * @return a registration for removing the listener
      */
     public Registration addSeatSelectedListener(ComponentEventListener<SeatSelectedEvent> listener) {
-        return addListener(SeatSelectedEvent.class, listener);
+        return addListener(SeatSelectedEvent.class, event -> {
+            // Occupied seats are disabled in the browser; ignore forged clicks
+            if (isFree(event.getSeatId())) {
+                listener.onComponentEvent(event);
+            }
+        });
+    }
+
+    private boolean isFree(String seatId) {
+        int index = SeatInventory.seatIndex(seatId);
+        return index >= 0 && (!occupiedSeats.get(index) || seatId.equalsIgnoreCase(selectedSeat));
     }
 
     /**
      * Event fired when a seat is selected.
      */
-    public static class SeatSelectedEvent extends ComponentEvent<Component> {
+    @DomEvent("seat-selected")
+    public static class SeatSelectedEvent extends ComponentEvent<SeatSelector> {
         private final String seatId;
 
         /**
          * Creates a new seat selected event.
-         * 
+         *
          * @param source the source component
+         * @param fromClient whether the event originated from the client
          * @param seatId the selected seat identifier
          */
-        public SeatSelectedEvent(Component source, String seatId) {
-            super(source, false);
+        public SeatSelectedEvent(SeatSelector source, boolean fromClient,
+                @EventData("event.detail.seat") String seatId) {
+            super(source, fromClient);
             this.seatId = seatId;
         }
 
         /**
          * Gets the selected seat identifier.
-         * 
+         *
          * @return the selected seat identifier
          */
         public String getSeatId() {
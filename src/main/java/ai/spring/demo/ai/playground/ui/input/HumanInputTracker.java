@@ -0,0 +1,99 @@
+package ai.spring.demo.ai.playground.ui.input;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps track of tools waiting for input from the user, e.g. a seat selection.
+ * <p>
+ * Such tools do not block until the user answers. They show their dialog, register a
+ * {@link Wait} and return straight away, which ends the model call. When the user
+ * answers, the view completes the wait and continues the conversation with a new
+ * message. A wait that is not answered in time runs its timeout action; the view
+ * cancels its waits when it is detached. Meanwhile no thread and no model connection
+ * is held.
+ */
+@Component
+public class HumanInputTracker {
+
+    private final MeterRegistry meterRegistry;
+    private final Duration timeout;
+    private final AtomicInteger pending = new AtomicInteger();
+
+    public HumanInputTracker(MeterRegistry meterRegistry,
+            @Value("${chat.human-input.timeout:5m}") Duration timeout) {
+        this.meterRegistry = meterRegistry;
+        this.timeout = timeout;
+        meterRegistry.gauge("chat.human.input.pending", pending);
+    }
+
+    /**
+     * Starts waiting for input.
+     *
+     * @param kind what the input is for, used as a metric tag
+     * @param onTimeout called if the wait is neither completed nor cancelled in time
+     * @return the wait to complete or cancel
+     */
+    public Wait begin(String kind, Runnable onTimeout) {
+        return new Wait(kind, onTimeout);
+    }
+
+    public final class Wait {
+
+        private final String kind;
+        private final Timer.Sample sample;
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private final Disposable timer;
+
+        private Wait(String kind, Runnable onTimeout) {
+            this.kind = kind;
+            this.sample = Timer.start(meterRegistry);
+            pending.incrementAndGet();
+            this.timer = Mono.delay(timeout).subscribe(t -> {
+                if (finish("timeout")) {
+                    onTimeout.run();
+                }
+            });
+        }
+
+        /**
+         * The user answered.
+         */
+        public void complete() {
+            if (finish("completed")) {
+                timer.dispose();
+            }
+        }
+
+        /**
+         * The user dismissed the request or left.
+         */
+        public void cancel() {
+            if (finish("cancelled")) {
+                timer.dispose();
+            }
+        }
+
+        private boolean finish(String outcome) {
+            if (!finished.compareAndSet(false, true)) {
+                return false;
+            }
+            pending.decrementAndGet();
+            sample.stop(Timer.builder("chat.human.input.wait")
+                .description("Time tools waited for input from the user")
+                .tags("kind", kind, "outcome", outcome)
+                .register(meterRegistry));
+            return true;
+        }
+
+    }
+
+}
@@ -0,0 +1,203 @@
+package ai.spring.demo.ai.playground.ui.push;
+
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.UIDetachedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces a stream of chat tokens into fewer, larger UI updates.
+ * <p>
+ * Instead of one {@link UI#access} (and one push message) per token, tokens are
+ * collected for up to a time window or until a number of characters is reached and
+ * then applied in a single UI access. At most one UI access per stream is in flight at
+ * any time; while it is pending, new tokens are merged into the next batch. If a client
+ * is so slow that the merged text grows beyond the configured limit, demand towards the
+ * model stream is paused until the UI catches up, so nothing queues up without bound.
+ */
+@Component
+public class TokenStreamCoalescer {
+
+    private static final Logger logger = LoggerFactory.getLogger(TokenStreamCoalescer.class);
+
+    private final Duration window;
+    private final int maxChars;
+    private final int maxPendingChars;
+    private final Scheduler scheduler = Schedulers.parallel();
+
+    private final Counter flushes;
+    private final DistributionSummary batchSize;
+    private final AtomicLong pendingChars = new AtomicLong();
+
+    public TokenStreamCoalescer(MeterRegistry meterRegistry,
+            @Value("${chat.ui.push.window:40ms}") Duration window,
+            @Value("${chat.ui.push.max-chars:256}") int maxChars,
+            @Value("${chat.ui.push.max-pending-chars:16384}") int maxPendingChars) {
+        this.window = window;
+        this.maxChars = maxChars;
+        this.maxPendingChars = maxPendingChars;
+        this.flushes = Counter.builder("chat.ui.push.flushes")
+            .description("UI accesses pushing streamed chat text to the browser")
+            .register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("chat.ui.push.batch.size")
+            .description("Characters per coalesced UI push")
+            .baseUnit("chars")
+            .register(meterRegistry);
+        meterRegistry.gauge("chat.ui.push.pending.chars", pendingChars);
+    }
+
+    /**
+     * Subscribes to the token stream and applies the coalesced text to the UI.
+     *
+     * @param ui the UI to update
+     * @param tokens the token stream
+     * @param onText receives each batch of text, called inside {@link UI#access}
+     * @param onComplete called inside {@link UI#access} after the last batch
+     * @return a disposable to cancel the stream, e.g. when the view detaches
+     */
+    public Disposable subscribe(UI ui, Flux<String> tokens, Consumer<String> onText, Runnable onComplete) {
+        var subscriber = new CoalescingSubscriber(ui, onText, onComplete);
+        tokens.subscribe(subscriber);
+        return subscriber;
+    }
+
+    private final class CoalescingSubscriber extends BaseSubscriber<String> {
+
+        private final UI ui;
+        private final Consumer<String> onText;
+        private final Runnable onComplete;
+
+        private final StringBuilder pending = new StringBuilder();
+        private boolean flushScheduled;
+        private boolean flushInFlight;
+        private boolean paused;
+        private boolean completed;
+        private boolean done;
+
+        CoalescingSubscriber(UI ui, Consumer<String> onText, Runnable onComplete) {
+            this.ui = ui;
+            this.onText = onText;
+            this.onComplete = onComplete;
+        }
+
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+            request(1);
+        }
+
+        @Override
+        protected void hookOnNext(String token) {
+            boolean requestMore;
+            synchronized (this) {
+                pending.append(token);
+                pendingChars.addAndGet(token.length());
+                if (pending.length() >= maxChars) {
+                    flush();
+                } else if (!flushScheduled && !flushInFlight) {
+                    flushScheduled = true;
+                    scheduler.schedule(this::scheduledFlush, window.toMillis(), TimeUnit.MILLISECONDS);
+                }
+                paused = pending.length() >= maxPendingChars;
+                requestMore = !paused;
+            }
+            if (requestMore) {
+                request(1);
+            }
+        }
+
+        @Override
+        protected void hookOnComplete() {
+            synchronized (this) {
+                completed = true;
+                flush();
+            }
+        }
+
+        @Override
+        protected void hookOnError(Throwable throwable) {
+            logger.warn("Chat stream failed", throwable);
+            hookOnComplete();
+        }
+
+        @Override
+        protected void hookOnCancel() {
+            synchronized (this) {
+                pendingChars.addAndGet(-pending.length());
+                pending.setLength(0);
+            }
+        }
+
+        private void scheduledFlush() {
+            synchronized (this) {
+                flushScheduled = false;
+                flush();
+            }
+        }
+
+        // Must be called while holding the monitor
+        private void flush() {
+            if (flushInFlight || done || (pending.isEmpty() && !completed)) {
+                return;
+            }
+            String text = pending.toString();
+            boolean last = completed;
+            pending.setLength(0);
+            flushInFlight = true;
+            done = last;
+            try {
+                ui.access(() -> {
+                    if (!text.isEmpty()) {
+                        onText.accept(text);
+                    }
+                    flushes.increment();
+                    batchSize.record(text.length());
+                    if (last) {
+                        onComplete.run();
+                    }
+                    flushCompleted();
+                });
+            } catch (UIDetachedException e) {
+                // Nobody is listening any more, stop the model stream
+                dispose();
+            } finally {
+                pendingChars.addAndGet(-text.length());
+            }
+        }
+
+        private void flushCompleted() {
+            boolean resume;
+            synchronized (this) {
+                flushInFlight = false;
+                // Text that arrived while the previous batch was being pushed goes out now
+                if (!pending.isEmpty() || (completed && !done)) {
+                    flush();
+                }
+                resume = paused && pending.length() < maxPendingChars;
+                if (resume) {
+                    paused = false;
+                }
+            }
+            if (resume) {
+                request(1);
+            }
+        }
+
+    }
+
+}
@@ -1,65 +1,115 @@
 package ai.spring.demo.ai.playground.ui.view;
 
+import ai.spring.demo.ai.playground.data.Booking;
 import ai.spring.demo.ai.playground.data.BookingDetails;
+import ai.spring.demo.ai.playground.data.BookingStatus;
+import ai.spring.demo.ai.playground.services.BookingQuery;
 import ai.spring.demo.ai.playground.services.CustomerSupportAssistant;
 import ai.spring.demo.ai.playground.services.FlightBookingService;
 import ai.spring.demo.ai.playground.ui.component.SeatSelector;
+import ai.spring.demo.ai.playground.ui.input.HumanInputTracker;
+import ai.spring.demo.ai.playground.ui.push.TokenStreamCoalescer;
 import com.vaadin.flow.component.AttachEvent;
 import com.vaadin.flow.component.Component;
 import com.vaadin.flow.component.DetachEvent;
 import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.UIDetachedException;
+import com.vaadin.flow.component.combobox.ComboBox;
+import com.vaadin.flow.component.datepicker.DatePicker;
 import com.vaadin.flow.component.dialog.Dialog;
 import com.vaadin.flow.component.grid.Grid;
 import com.vaadin.flow.component.html.Span;
 import com.vaadin.flow.component.messages.MessageInput;
 import com.vaadin.flow.component.messages.MessageList;
 import com.vaadin.flow.component.messages.MessageListItem;
+import com.vaadin.flow.component.notification.Notification;
+import com.vaadin.flow.component.orderedlayout.HorizontalLayout;
 import com.vaadin.flow.component.orderedlayout.VerticalLayout;
 import com.vaadin.flow.component.splitlayout.SplitLayout;
+import com.vaadin.flow.component.textfield.TextField;
+import com.vaadin.flow.data.provider.CallbackDataProvider;
+import com.vaadin.flow.data.provider.QuerySortOrder;
+import com.vaadin.flow.data.provider.SortDirection;
+import com.vaadin.flow.data.value.ValueChangeMode;
 import com.vaadin.flow.router.Route;
 import org.springframework.ai.tool.annotation.Tool;
+import org.springframework.ai.tool.execution.ToolCallResultConverter;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
 
+import java.lang.reflect.Type;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
 @Route("")
 public class FlightBookingView extends SplitLayout {
 
+    // The service sorts on the booking state before building the rows of a page, so
+    // booking number and customer name columns are not sortable
+    private static final Map<String, Comparator<Booking.Snapshot>> COLUMN_ORDER = Map.of(
+        "date", by(Booking.Snapshot::date),
+        "bookingStatus", by(Booking.Snapshot::bookingStatus),
+        "from", by(Booking.Snapshot::from),
+        "to", by(Booking.Snapshot::to),
+        "seatNumber", by(Booking.Snapshot::seatNumber),
+        "bookingClass", by(Booking.Snapshot::bookingClass));
 
     private final FlightBookingService flightBookingService;
     private final CustomerSupportAssistant assistant;
+    private final TokenStreamCoalescer tokenStreamCoalescer;
+    private final HumanInputTracker humanInputTracker;
     private Grid<BookingDetails> grid;
+    private TextField filter;
+    private DatePicker firstDate;
+    private DatePicker lastDate;
+    private ComboBox<BookingStatus> status;
+    private CallbackDataProvider<BookingDetails, Void> bookings;
+    private Disposable bookingChanges;
+    // Replies still streaming into the message list, cancelled when the view detaches
+    private Disposable.Composite chatStreams;
     private final String chatId = UUID.randomUUID().toString();
+
+    // Tool waits still open in this view, touched only while holding the UI lock
+    private final List<HumanInputTracker.Wait> pendingInputs = new ArrayList<>();
+    private MessageList messageList;
     private UI ui;
 
     public FlightBookingView(
         FlightBookingService flightBookingService,
-        CustomerSupportAssistant assistant
+        CustomerSupportAssistant assistant,
+        TokenStreamCoalescer tokenStreamCoalescer,
+        HumanInputTracker humanInputTracker
     ) {
         this.flightBookingService = flightBookingService;
         this.assistant = assistant;
+        this.tokenStreamCoalescer = tokenStreamCoalescer;
+        this.humanInputTracker = humanInputTracker;
         setSizeFull();
         setOrientation(Orientation.HORIZONTAL);
         setSplitterPosition(30);
 
         addToPrimary(createChatLayout());
         addToSecondary(createGrid());
-
-        updateBookings();
     }
 
 
     private Component createChatLayout() {
         var chatLayout = new VerticalLayout();
-        var messageList = new MessageList();
+        messageList = new MessageList();
         var messageInput = new MessageInput();
 
         messageList.setMarkdown(true);
         chatLayout.setPadding(false);
 
         messageInput.setWidthFull();
-        messageInput.addSubmitListener(e -> handleMessageInput(e.getValue(), messageList));
+        messageInput.addSubmitListener(e -> handleMessageInput(e.getValue()));
 
         chatLayout.addAndExpand(messageList);
         chatLayout.add(messageInput);
@@ -67,16 +117,80 @@ public class FlightBookingView extends SplitLayout {
     }
 
     private Component createGrid() {
+        var gridLayout = new VerticalLayout();
+        gridLayout.setPadding(false);
+
+        filter = new TextField();
+        filter.setPlaceholder("Search bookings");
+        filter.setClearButtonVisible(true);
+        filter.setValueChangeMode(ValueChangeMode.LAZY);
+        filter.addValueChangeListener(e -> bookings.refreshAll());
+
+        // Date ranges are served from the booking index, so narrow ranges stay fast on large stores
+        firstDate = new DatePicker();
+        firstDate.setPlaceholder("Departing from");
+        firstDate.setClearButtonVisible(true);
+        firstDate.addValueChangeListener(e -> bookings.refreshAll());
+        lastDate = new DatePicker();
+        lastDate.setPlaceholder("Departing until");
+        lastDate.setClearButtonVisible(true);
+        lastDate.addValueChangeListener(e -> bookings.refreshAll());
+        status = new ComboBox<>();
+        status.setPlaceholder("Status");
+        status.setItems(BookingStatus.values());
+        status.setClearButtonVisible(true);
+        status.addValueChangeListener(e -> bookings.refreshAll());
+
+        // Pages are fetched, filtered and sorted by the service; only the visible rows are sent
+        bookings = new CallbackDataProvider<>(
+            query -> flightBookingService.getBookings(filter.getValue(), bookingQuery(),
+                sortOrder(query.getSortOrders()), query.getOffset(), query.getLimit()).stream(),
+            query -> flightBookingService.countBookings(filter.getValue(), bookingQuery()),
+            BookingDetails::bookingNumber);
+
         grid = new Grid<>(BookingDetails.class);
         grid.setSizeFull();
         grid.setColumns("bookingNumber", "firstName", "lastName", "date", "bookingStatus", "from", "to", "seatNumber", "bookingClass");
-        grid.getColumns().forEach(col -> col.setAutoWidth(true));
+        grid.getColumns().forEach(col -> {
+            col.setAutoWidth(true);
+            col.setSortable(COLUMN_ORDER.containsKey(col.getKey()));
+        });
+        grid.setItems(bookings);
+
+        var filters = new HorizontalLayout(filter, firstDate, lastDate, status);
+        filters.setWidthFull();
+        filters.setFlexGrow(1, filter);
+        gridLayout.add(filters);
+        gridLayout.addAndExpand(grid);
+        return gridLayout;
+    }
 
-        return grid;
+    private BookingQuery bookingQuery() {
+        return new BookingQuery(firstDate.getValue(), lastDate.getValue(), null, null, status.getValue());
     }
 
+    private static Comparator<Booking.Snapshot> sortOrder(List<QuerySortOrder> sortOrders) {
+        Comparator<Booking.Snapshot> order = null;
+        for (QuerySortOrder sortOrder : sortOrders) {
+            Comparator<Booking.Snapshot> column = COLUMN_ORDER.get(sortOrder.getSorted());
+            if (column == null) {
+                continue;
+            }
+            if (sortOrder.getDirection() == SortDirection.DESCENDING) {
+                column = column.reversed();
+            }
+            order = order == null ? column : order.thenComparing(column);
+        }
+        return order;
+    }
 
-    private void handleMessageInput(String userMessage, MessageList messageList) {
+    private static <U extends Comparable<? super U>> Comparator<Booking.Snapshot> by(
+            Function<Booking.Snapshot, U> key) {
+        return Comparator.comparing(key, Comparator.nullsLast(Comparator.naturalOrder()));
+    }
+
+
+    private void handleMessageInput(String userMessage) {
         var userMessageItem = new MessageListItem(userMessage, null, "You");
         userMessageItem.setUserColorIndex(1);
         messageList.addItem(userMessageItem);
@@ -85,64 +199,114 @@ public class FlightBookingView extends SplitLayout {
         var responseItem = new MessageListItem("", null, "Assistant");
         responseItem.setUserColorIndex(2);
 
-        assistant.chat(chatId, userMessage, this)
-            .doOnComplete(() -> ui.access(this::updateBookings))
-            .subscribe(token -> ui.access(() -> {
-                if (first.get()) {
-                    responseItem.setText(token);
-                    messageList.addItem(responseItem);
-                    first.set(false);
-                } else {
-                    responseItem.appendText(token);
-                }
-            }));
+        // Completion runs inside UI#access, so never before the stream has been added
+        var chatStream = Disposables.swap();
+        chatStreams.add(chatStream);
+        chatStream.update(tokenStreamCoalescer.subscribe(ui, assistant.chat(chatId, userMessage, this), text -> {
+            if (first.get()) {
+                responseItem.setText(text);
+                messageList.addItem(responseItem);
+                first.set(false);
+            } else {
+                responseItem.appendText(text);
+            }
+        }, () -> chatStreams.remove(chatStream)));
     }
 
-    @Tool(description = "Request the user to select a new seat")
+    // Returns at once, ending the model call; the conversation continues with a new
+    // message once the user has picked a seat
+    @Tool(description = "Request the user to select a new seat", returnDirect = true,
+        resultConverter = PlainTextResultConverter.class)
     public String changeSeatNumber(String bookingNumber, String firstName, String lastName) {
-        CompletableFuture<String> seatSelectionFuture = new CompletableFuture<>();
+        var booking = flightBookingService.getBookingDetails(bookingNumber, firstName, lastName);
+        var occupiedSeats = flightBookingService.getOccupiedSeats(bookingNumber, firstName, lastName);
+        var currentUi = ui;
+        if (currentUi == null) {
+            return "The chat has been closed.";
+        }
+        currentUi.access(() -> openSeatDialog(bookingNumber, firstName, lastName, booking.seatNumber(), occupiedSeats));
+        return "Please select a new seat for booking " + bookingNumber + " in the seat map.";
+    }
 
+    private void openSeatDialog(String bookingNumber, String firstName, String lastName, String seatNumber,
+            BitSet occupiedSeats) {
         var dialog = new Dialog();
         dialog.setModal(true);
         dialog.setHeaderTitle("Select a new seat for " + firstName + " " + lastName);
 
-        var booking = flightBookingService.getBookingDetails(bookingNumber, firstName, lastName);
-        var seatSelector = new SeatSelector(booking.seatNumber());
+        var currentUi = ui;
+        var wait = humanInputTracker.begin("seat-selection", () -> {
+            try {
+                currentUi.access(() -> {
+                    dialog.close();
+                    Notification.show("The seat selection timed out.");
+                });
+            } catch (UIDetachedException e) {
+                // The view is gone, nothing left to close
+            }
+        });
+        pendingInputs.add(wait);
+        // Any close ends the wait; if the user just dismissed the dialog (e.g. with Esc) it
+        // counts as cancelled
+        dialog.addOpenedChangeListener(e -> {
+            if (!e.isOpened()) {
+                wait.cancel();
+                pendingInputs.remove(wait);
+            }
+        });
 
+        var seatSelector = new SeatSelector(seatNumber, occupiedSeats);
         seatSelector.addSeatSelectedListener(event -> {
             String newSeatNumber = event.getSeatId();
-            flightBookingService.changeSeat(bookingNumber, firstName, lastName, newSeatNumber);
-            ui.access(() -> {
-                dialog.close();
-                updateBookings();
-                seatSelectionFuture.complete(newSeatNumber);
-            });
+            try {
+                flightBookingService.changeSeat(bookingNumber, firstName, lastName, newSeatNumber);
+            } catch (IllegalArgumentException e) {
+                // The seat was taken by someone else since the dialog was opened
+                Notification.show(e.getMessage());
+                return;
+            }
+            wait.complete();
+            dialog.close();
+            handleMessageInput("I have selected seat " + newSeatNumber + " for booking " + bookingNumber + ".");
         });
 
         dialog.add(seatSelector);
-        ui.access(dialog::open);
+        dialog.open();
+    }
 
-        // Wait for the seat selection to complete before returning to ensure the chat flow stays in sync
-        try {
-            return seatSelectionFuture.get();
-        } catch (Exception e) {
-            throw new RuntimeException("Error while waiting for seat selection", e);
+    /**
+     * Passes tool results that go straight to the user through as they are, instead of
+     * as JSON strings.
+     */
+    public static class PlainTextResultConverter implements ToolCallResultConverter {
+
+        @Override
+        public String convert(Object result, Type returnType) {
+            return String.valueOf(result);
         }
-    }
 
-    private void updateBookings() {
-        grid.setItems(flightBookingService.getBookings());
     }
 
     @Override
     protected void onAttach(AttachEvent attachEvent) {
         super.onAttach(attachEvent);
         this.ui = attachEvent.getUI();
+        chatStreams = Disposables.composite();
+        // Refresh just the rows that changed, in batches when many change at once
+        var attachedUi = this.ui;
+        bookingChanges = flightBookingService.bookingChanges()
+            .bufferTimeout(256, Duration.ofMillis(100))
+            .subscribe(changed -> attachedUi.access(() -> changed.forEach(bookings::refreshItem)));
     }
 
     @Override
     protected void onDetach(DetachEvent detachEvent) {
         super.onDetach(detachEvent);
         this.ui = null;
+        bookingChanges.dispose();
+        chatStreams.dispose();
+        pendingInputs.forEach(HumanInputTracker.Wait::cancel);
+        pendingInputs.clear();
+        assistant.endConversation(chatId);
     }
 }
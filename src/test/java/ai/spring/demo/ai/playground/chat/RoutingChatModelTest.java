@@ -0,0 +1,225 @@
+package ai.spring.demo.ai.playground.chat;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.model.tool.ToolCallingManager;
+import org.springframework.ai.model.tool.ToolExecutionResult;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Races stub providers with known latencies against each other. Timing assertions leave
+ * a wide margin, the stubs answer either well before or well after the hedge delay.
+ */
+class RoutingChatModelTest {
+
+	private static final Duration HEDGE_DELAY = Duration.ofMillis(200);
+
+	private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private final CountingToolCallingManager toolCallingManager = new CountingToolCallingManager();
+
+	@Test
+	void slowProviderIsHedgedAfterTheDelay() {
+		var slow = new StubModel("slow", Duration.ofSeconds(3), false);
+		var fast = new StubModel("fast", Duration.ofMillis(10), false);
+		var router = router(slow, fast);
+
+		long start = System.nanoTime();
+		String answer = text(router.stream(prompt()));
+		Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+		assertThat(answer).isEqualTo("fast");
+		assertThat(elapsed).isGreaterThanOrEqualTo(HEDGE_DELAY).isLessThan(Duration.ofSeconds(2));
+		assertThat(slow.calls.get()).isEqualTo(1);
+		assertThat(fast.calls.get()).isEqualTo(1);
+	}
+
+	@Test
+	void failingProviderHandsOverWithoutWaitingForTheHedgeDelay() {
+		var limited = new StubModel("limited", Duration.ZERO, true);
+		var backup = new StubModel("backup", Duration.ofMillis(10), false);
+		var router = new RoutingChatModel(providers(limited, backup), this.toolCallingManager, Duration.ofSeconds(5),
+				0.5, this.meterRegistry);
+
+		long start = System.nanoTime();
+		String answer = text(router.stream(prompt()));
+		Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+		assertThat(answer).isEqualTo("backup");
+		assertThat(elapsed).isLessThan(Duration.ofSeconds(2));
+		assertThat(latency("limited")).isGreaterThanOrEqualTo(5000.0);
+	}
+
+	@Test
+	void toolCallsRunOnceWhenBothProvidersAnswer() {
+		var first = new StubModel("first", Duration.ofMillis(50), false);
+		var second = new StubModel("second", Duration.ofMillis(50), false);
+		var router = new RoutingChatModel(providers(first, second), this.toolCallingManager, Duration.ZERO, 0.5,
+				this.meterRegistry);
+
+		String answer = text(router.stream(prompt("tool")));
+
+		assertThat(answer).isIn("first", "second");
+		assertThat(this.toolCallingManager.executions.get()).isEqualTo(1);
+		assertThat(first.internalToolExecution).isFalse();
+		assertThat(second.internalToolExecution).isFalse();
+	}
+
+	@Test
+	void fasterProviderIsRankedFirst() {
+		var slow = new StubModel("slow", Duration.ofSeconds(1), false);
+		var fast = new StubModel("fast", Duration.ofMillis(10), false);
+		var router = router(slow, fast);
+
+		for (int i = 0; i < 3; i++) {
+			assertThat(text(router.stream(prompt()))).isEqualTo("fast");
+		}
+
+		// Only the first request tried the slow provider, which then ranked second
+		assertThat(slow.calls.get()).isEqualTo(1);
+		assertThat(fast.calls.get()).isEqualTo(3);
+		assertThat(latency("slow")).isGreaterThan(latency("fast"));
+	}
+
+	@Test
+	void clientCancelDoesNotCountAgainstTheProviders() throws InterruptedException {
+		var first = new StubModel("first", Duration.ofSeconds(10), false);
+		var second = new StubModel("second", Duration.ofSeconds(10), false);
+		var router = router(first, second);
+
+		Disposable subscription = router.stream(prompt()).subscribe();
+		Thread.sleep(HEDGE_DELAY.multipliedBy(2).toMillis());
+		subscription.dispose();
+
+		assertThat(second.calls.get()).isEqualTo(1);
+		assertThat(latency("first")).isEqualTo(0.0);
+		assertThat(latency("second")).isEqualTo(0.0);
+	}
+
+	private RoutingChatModel router(StubModel... models) {
+		return new RoutingChatModel(providers(models), this.toolCallingManager, HEDGE_DELAY, 0.5, this.meterRegistry);
+	}
+
+	// In the order given, which is also the ranking as long as none has been tried
+	private static Map<String, ChatModel> providers(StubModel... models) {
+		Map<String, ChatModel> providers = new LinkedHashMap<>();
+		for (StubModel model : models) {
+			providers.put(model.name, model);
+		}
+		return providers;
+	}
+
+	private double latency(String provider) {
+		return this.meterRegistry.get("chat.routing.provider.latency").tag("provider", provider).gauge().value();
+	}
+
+	private static Prompt prompt() {
+		return prompt("hello");
+	}
+
+	private static Prompt prompt(String text) {
+		return new Prompt(text, ToolCallingChatOptions.builder().build());
+	}
+
+	private static String text(Flux<ChatResponse> responses) {
+		return responses.map(response -> response.getResult().getOutput().getText())
+			.collectList()
+			.map(texts -> String.join("", texts))
+			.block(Duration.ofSeconds(10));
+	}
+
+	/**
+	 * Answers with its name after a fixed delay, or fails at once. A user message
+	 * {@code tool} is first answered with a tool call.
+	 */
+	private static final class StubModel implements ChatModel {
+
+		private final String name;
+
+		private final Duration latency;
+
+		private final boolean failing;
+
+		private final AtomicInteger calls = new AtomicInteger();
+
+		private volatile Boolean internalToolExecution;
+
+		StubModel(String name, Duration latency, boolean failing) {
+			this.name = name;
+			this.latency = latency;
+			this.failing = failing;
+		}
+
+		@Override
+		public ChatResponse call(Prompt prompt) {
+			return stream(prompt).blockLast();
+		}
+
+		@Override
+		public Flux<ChatResponse> stream(Prompt prompt) {
+			return Flux.defer(() -> {
+				this.calls.incrementAndGet();
+				if (prompt.getOptions() instanceof ToolCallingChatOptions options) {
+					this.internalToolExecution = options.getInternalToolExecutionEnabled();
+				}
+				if (this.failing) {
+					return Flux.error(new IllegalStateException("429 Too Many Requests"));
+				}
+				return Flux.just(response(prompt.getInstructions())).delaySubscription(this.latency);
+			});
+		}
+
+		private ChatResponse response(List<Message> instructions) {
+			Message last = instructions.get(instructions.size() - 1);
+			if (last.getMessageType() == MessageType.USER && last.getText().equals("tool")) {
+				var call = new AssistantMessage.ToolCall("call-1", "function", "lookup", "{}");
+				return new ChatResponse(List.of(new Generation(new AssistantMessage("", Map.of(), List.of(call)))));
+			}
+			return new ChatResponse(List.of(new Generation(new AssistantMessage(this.name))));
+		}
+
+	}
+
+	private static final class CountingToolCallingManager implements ToolCallingManager {
+
+		private final AtomicInteger executions = new AtomicInteger();
+
+		@Override
+		public List<ToolDefinition> resolveToolDefinitions(ToolCallingChatOptions chatOptions) {
+			return List.of();
+		}
+
+		@Override
+		public ToolExecutionResult executeToolCalls(Prompt prompt, ChatResponse chatResponse) {
+			this.executions.incrementAndGet();
+			var result = new ToolResponseMessage(
+					List.of(new ToolResponseMessage.ToolResponse("call-1", "lookup", "\"found\"")));
+			return ToolExecutionResult.builder()
+				.conversationHistory(List.of(prompt.getInstructions().get(0),
+						chatResponse.getResult().getOutput(), result))
+				.build();
+		}
+
+	}
+
+}
@@ -0,0 +1,138 @@
+package ai.spring.demo.ai.playground.data;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BookingJournalTest {
+
+	// Long enough that only flush, snapshot and close write the log
+	private static final Duration GROUP_COMMIT = Duration.ofHours(1);
+
+	private static final LocalDate DATE = LocalDate.now().plusDays(10);
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void recoverFindsNothingInAnEmptyDirectory() {
+		try (var journal = BookingJournal.open(this.directory, GROUP_COMMIT)) {
+			assertThat(journal.recover(new BookingData())).isFalse();
+		}
+	}
+
+	@Test
+	void recoverReplaysTheLogOnTopOfTheSnapshot() {
+		BookingData db = bookings();
+		try (var journal = BookingJournal.open(this.directory, GROUP_COMMIT)) {
+			journal.snapshot(db);
+			Booking changed = db.findBooking("101");
+			changed.update(s -> s.withSeatNumber("7F").withBookingStatus(BookingStatus.COMPLETED));
+			journal.append(changed);
+			Booking cancelled = db.findBooking("102");
+			cancelled.update(s -> s.withBookingStatus(BookingStatus.CANCELLED));
+			journal.append(cancelled);
+		}
+
+		BookingData recovered = new BookingData();
+		try (var journal = BookingJournal.open(this.directory, GROUP_COMMIT)) {
+			assertThat(journal.recover(recovered)).isTrue();
+		}
+		assertThat(recovered.getBookings()).hasSize(3);
+		assertThat(recovered.findBooking("101").snapshot()).isEqualTo(db.findBooking("101").snapshot());
+		assertThat(recovered.findBooking("102").snapshot().bookingStatus()).isEqualTo(BookingStatus.CANCELLED);
+		assertThat(recovered.findBooking("103").snapshot()).isEqualTo(db.findBooking("103").snapshot());
+		Customer customer = recovered.findCustomer("Jane", "Doe");
+		assertThat(customer.getBookings()).hasSize(2);
+	}
+
+	@Test
+	void recoverWithoutSnapshotReplaysAllLogs() {
+		BookingData db = bookings();
+		try (var journal = BookingJournal.open(this.directory, GROUP_COMMIT)) {
+			db.getBookings().forEach(journal::append);
+		}
+		Booking changed = db.findBooking("103");
+		changed.update(s -> s.withSeatNumber("12A"));
+		try (var journal = BookingJournal.open(this.directory, GROUP_COMMIT)) {
+			journal.append(changed);
+		}
+
+		BookingData recovered = new BookingData();
+		try (var journal = BookingJournal.open(this.directory, GROUP_COMMIT)) {
+			assertThat(journal.recover(recovered)).isTrue();
+		}
+		assertThat(recovered.getBookings()).hasSize(3);
+		assertThat(recovered.findBooking("103").snapshot().seatNumber()).isEqualTo("12A");
+	}
+
+	@Test
+	void recoverIgnoresATornTail() throws IOException {
+		BookingData db = bookings();
+		try (var journal = BookingJournal.open(this.directory, GROUP_COMMIT)) {
+			db.getBookings().forEach(journal::append);
+		}
+		Booking changed = db.findBooking("101");
+		changed.update(s -> s.withSeatNumber("9B"));
+		try (var journal = BookingJournal.open(this.directory, GROUP_COMMIT)) {
+			journal.append(changed);
+		}
+		// Simulate a crash halfway through the group commit of the last entry
+		Path torn = logs().get(1);
+		byte[] frame = Files.readAllBytes(torn);
+		Files.write(torn, Arrays.copyOf(frame, frame.length / 2));
+
+		BookingData recovered = new BookingData();
+		try (var journal = BookingJournal.open(this.directory, GROUP_COMMIT)) {
+			assertThat(journal.recover(recovered)).isTrue();
+		}
+		assertThat(recovered.getBookings()).hasSize(3);
+		assertThat(recovered.findBooking("101").snapshot().seatNumber()).isEqualTo("1A");
+	}
+
+	@Test
+	void snapshotRemovesTheLogsItCovers() throws IOException {
+		BookingData db = bookings();
+		try (var journal = BookingJournal.open(this.directory, GROUP_COMMIT)) {
+			db.getBookings().forEach(journal::append);
+			journal.flush();
+			journal.snapshot(db);
+		}
+		assertThat(Files.exists(this.directory.resolve("snapshot.bin"))).isTrue();
+		assertThat(logs()).hasSize(1);
+		assertThat(Files.size(logs().get(0))).isEqualTo(0L);
+	}
+
+	private List<Path> logs() throws IOException {
+		try (Stream<Path> files = Files.list(this.directory)) {
+			return files.filter(p -> p.getFileName().toString().endsWith(".log")).sorted().toList();
+		}
+	}
+
+	private static BookingData bookings() {
+		var jane = new Customer("Jane", "Doe");
+		var john = new Customer("John", "Smith");
+		var first = new Booking("101", DATE, jane, BookingStatus.CONFIRMED, "LAX", "JFK", "1A", BookingClass.ECONOMY);
+		var second = new Booking("102", DATE.plusDays(1), jane, BookingStatus.CONFIRMED, "JFK", "LAX", "2B",
+				BookingClass.BUSINESS);
+		var third = new Booking("103", DATE, john, BookingStatus.CONFIRMED, "LAX", "JFK", "3C",
+				BookingClass.PREMIUM_ECONOMY);
+		jane.getBookings().addAll(List.of(first, second));
+		john.getBookings().add(third);
+		var db = new BookingData();
+		db.setCustomers(List.of(jane, john));
+		db.setBookings(List.of(first, second, third));
+		return db;
+	}
+
+}
@@ -0,0 +1,124 @@
+package ai.spring.demo.ai.playground.data;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CompactBookingDataTest {
+
+	private static final LocalDate DATE = LocalDate.now().plusDays(10);
+
+	@Test
+	void removedBookingIsNeitherFoundNorListed() {
+		CompactBookingData db = bookings();
+		db.removeBooking(db.findBooking("102"));
+
+		assertThat(db.findBooking("102")).isNull();
+		assertThat(numbers(db.getBookings())).containsExactly("101", "103");
+		assertThat(db.findCustomer("Jane", "Doe")).isNotNull();
+	}
+
+	@Test
+	void customerLeftWithoutBookingsIsRemoved() {
+		CompactBookingData db = bookings();
+		db.removeBooking(db.findBooking("101"));
+		db.removeBooking(db.findBooking("102"));
+
+		assertThat(db.findCustomer("Jane", "Doe")).isNull();
+		assertThat(db.getCustomers().stream().map(Customer::getLastName).toList()).containsExactly("Roe");
+	}
+
+	@Test
+	void removedBookingNumberCanBeAddedAgain() {
+		CompactBookingData db = bookings();
+		db.removeBooking(db.findBooking("101"));
+		db.addBooking(booking("101", new Customer("Jane", "Doe"), "9C"));
+
+		assertThat(db.findBooking("101").getSeatNumber()).isEqualTo("9C");
+		assertThat(numbers(db.getBookings())).containsExactly("102", "103", "101");
+		assertThat(db.getCustomers()).hasSize(2);
+	}
+
+	@Test
+	void removedBookingCanStillBeChanged() {
+		CompactBookingData db = bookings();
+		Booking removed = db.findBooking("101");
+		db.removeBooking(removed);
+
+		removed.update(s -> s.withBookingStatus(BookingStatus.CANCELLED));
+
+		assertThat(removed.getBookingStatus()).isEqualTo(BookingStatus.CANCELLED);
+		assertThat(db.findBooking("101")).isNull();
+		assertThat(db.getBookings()).hasSize(2);
+	}
+
+	@Test
+	void renumberedBookingIsFoundByItsNewNumber() {
+		CompactBookingData db = bookings();
+		db.findBooking("101").setBookingNumber("ab-101");
+
+		assertThat(db.findBooking("101")).isNull();
+		assertThat(db.findBooking("AB-101").getSeatNumber()).isEqualTo("1A");
+		assertThat(numbers(db.getBookings())).containsExactly("ab-101", "102", "103");
+		assertThatThrownBy(() -> db.findBooking("102").setBookingNumber("AB-101"))
+			.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	void bookingMovedToAnotherCustomerCountsForThatCustomer() {
+		CompactBookingData db = bookings();
+		db.findBooking("103").setCustomer(new Customer("Max", "Moe"));
+
+		assertThat(db.findBooking("103").getCustomer().getLastName()).isEqualTo("Moe");
+		assertThat(db.findCustomer("Rita", "Roe")).isNull();
+		assertThat(db.getCustomers().stream().map(Customer::getLastName).toList()).containsExactly("Doe", "Moe");
+	}
+
+	@Test
+	void customersSetAfterTheBookingsKeepTheirBookings() {
+		CompactBookingData db = bookings();
+		db.setCustomers(List.of(new Customer("Rita", "Roe"), new Customer("Jane", "Doe")));
+		db.removeBooking(db.findBooking("103"));
+
+		assertThat(db.findBooking("101").getCustomer().getLastName()).isEqualTo("Doe");
+		assertThat(db.findCustomer("Rita", "Roe")).isNull();
+		assertThat(db.findCustomer("Jane", "Doe")).isNotNull();
+	}
+
+	@Test
+	void customersSetAfterARemovalDoNotIncludeTheRemovedCustomer() {
+		CompactBookingData db = bookings();
+		db.removeBooking(db.findBooking("103"));
+		db.setCustomers(List.of(new Customer("Jane", "Doe")));
+
+		assertThat(db.getCustomers()).hasSize(1);
+		assertThat(db.findCustomer("Rita", "Roe")).isNull();
+	}
+
+	@Test
+	void missingBookingNumberFindsNothing() {
+		assertThat(bookings().findBooking(null)).isNull();
+	}
+
+	private static CompactBookingData bookings() {
+		var jane = new Customer("Jane", "Doe");
+		var rita = new Customer("Rita", "Roe");
+		var db = new CompactBookingData();
+		db.setCustomers(List.of(jane, rita));
+		db.setBookings(List.of(booking("101", jane, "1A"), booking("102", jane, "2B"), booking("103", rita, "3C")));
+		return db;
+	}
+
+	private static Booking booking(String number, Customer customer, String seat) {
+		return new Booking(number, DATE, customer, BookingStatus.CONFIRMED, "LAX", "JFK", seat, BookingClass.ECONOMY);
+	}
+
+	private static List<String> numbers(List<Booking> bookings) {
+		return bookings.stream().map(Booking::getBookingNumber).toList();
+	}
+
+}
@@ -0,0 +1,142 @@
+package ai.spring.demo.ai.playground.data;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ai.spring.demo.ai.playground.data.SeatInventory.Flight;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SeatInventoryTest {
+
+	private static final Flight FLIGHT = new Flight("LAX", "JFK", LocalDate.now().plusDays(10));
+
+	private static final int THREADS = 64;
+
+	@Test
+	void onlyOneConcurrentAllocationOfASeatSucceeds() throws Exception {
+		var inventory = new SeatInventory();
+		for (int round = 0; round < 100; round++) {
+			String seat = SeatInventory.seatNumber(round % SeatInventory.SEATS);
+			var flight = new Flight("LAX", "JFK", FLIGHT.date().plusDays(round));
+			var allocated = new AtomicInteger();
+			runConcurrently(() -> {
+				if (inventory.allocate(flight, seat)) {
+					allocated.incrementAndGet();
+				}
+				return null;
+			});
+			assertThat(allocated.get()).isEqualTo(1);
+		}
+	}
+
+	@Test
+	void concurrentAllocateAnyHandsOutEverySeatOnce() throws Exception {
+		var inventory = new SeatInventory();
+		List<String> seats = runConcurrently(() -> {
+			List<String> mine = new ArrayList<>();
+			String seat;
+			while ((seat = inventory.allocateAny(FLIGHT)) != null) {
+				mine.add(seat);
+			}
+			return mine;
+		}).stream().flatMap(List::stream).toList();
+
+		Set<String> distinct = new HashSet<>(seats);
+		assertThat(seats).hasSize(SeatInventory.SEATS);
+		assertThat(distinct).hasSize(SeatInventory.SEATS);
+		assertThat(inventory.occupancy(FLIGHT).cardinality()).isEqualTo(SeatInventory.SEATS);
+	}
+
+	@Test
+	void concurrentReleasesAndAllocationsKeepOccupancyConsistent() throws Exception {
+		var inventory = new SeatInventory();
+		// Every thread owns a few seats and keeps releasing and taking them back
+		runConcurrently(new Callable<Void>() {
+
+			private final AtomicInteger next = new AtomicInteger();
+
+			@Override
+			public Void call() {
+				int first = this.next.getAndIncrement();
+				for (int i = 0; i < 10_000; i++) {
+					String seat = SeatInventory.seatNumber((first + i * THREADS) % SeatInventory.SEATS);
+					if (inventory.allocate(FLIGHT, seat)) {
+						inventory.release(FLIGHT, seat);
+					}
+				}
+				return null;
+			}
+
+		});
+		assertThat(inventory.occupancy(FLIGHT).isEmpty()).isTrue();
+	}
+
+	@Test
+	void releasedSeatCanBeAllocatedAgain() {
+		var inventory = new SeatInventory();
+		assertThat(inventory.allocate(FLIGHT, "3C")).isTrue();
+		assertThat(inventory.allocate(FLIGHT, "3c")).isFalse();
+		inventory.release(FLIGHT, "3C");
+		assertThat(inventory.allocate(FLIGHT, "3C")).isTrue();
+	}
+
+	@Test
+	void loadSkipsCancelledBookings() {
+		var customer = new Customer("Jane", "Doe");
+		var confirmed = new Booking("101", FLIGHT.date(), customer, BookingStatus.CONFIRMED, "LAX", "JFK", "1A",
+				BookingClass.ECONOMY);
+		var cancelled = new Booking("102", FLIGHT.date(), customer, BookingStatus.CANCELLED, "LAX", "JFK", "1B",
+				BookingClass.ECONOMY);
+		var inventory = new SeatInventory();
+		inventory.load(List.of(confirmed, cancelled));
+
+		assertThat(inventory.occupancy(FLIGHT).get(SeatInventory.seatIndex("1A"))).isTrue();
+		assertThat(inventory.occupancy(FLIGHT).get(SeatInventory.seatIndex("1B"))).isFalse();
+	}
+
+	@Test
+	void seatNumbersRoundTrip() {
+		for (int i = 0; i < SeatInventory.SEATS; i++) {
+			assertThat(SeatInventory.seatIndex(SeatInventory.seatNumber(i))).isEqualTo(i);
+		}
+		assertThat(SeatInventory.seatIndex("13A")).isEqualTo(-1);
+		assertThat(SeatInventory.seatIndex("1G")).isEqualTo(-1);
+		assertThat(SeatInventory.seatIndex(null)).isEqualTo(-1);
+	}
+
+	// Starts all tasks at once to maximize contention
+	private static <T> List<T> runConcurrently(Callable<T> task) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			var start = new CountDownLatch(1);
+			List<Future<T>> futures = new ArrayList<>();
+			for (int i = 0; i < THREADS; i++) {
+				futures.add(executor.submit(() -> {
+					start.await();
+					return task.call();
+				}));
+			}
+			start.countDown();
+			List<T> results = new ArrayList<>();
+			for (Future<T> future : futures) {
+				results.add(future.get());
+			}
+			return results;
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+}
@@ -0,0 +1,175 @@
+package ai.spring.demo.ai.playground.services;
+
+import ai.spring.demo.ai.playground.data.Booking;
+import ai.spring.demo.ai.playground.data.BookingClass;
+import ai.spring.demo.ai.playground.data.BookingData;
+import ai.spring.demo.ai.playground.data.BookingDetails;
+import ai.spring.demo.ai.playground.data.BookingStatus;
+import ai.spring.demo.ai.playground.data.Customer;
+import ai.spring.demo.ai.playground.data.SeatInventory;
+import ai.spring.demo.ai.playground.data.SeatInventory.Flight;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Hammers the single booking operations from many virtual threads on a few crowded
+ * flights, with readers checking every booking they see, and checks that the bookings
+ * and the seat inventory still agree.
+ */
+class FlightBookingServiceConcurrencyTest {
+
+	private static final int BOOKINGS = 200;
+
+	private static final int THREADS = 2000;
+
+	private static final int OPERATIONS_PER_THREAD = 50;
+
+	private static final int READERS = 100;
+
+	// Two routes, LAX-JFK and JFK-SFO
+	private static final List<String> AIRPORTS = List.of("LAX", "JFK", "SFO");
+
+	private static final LocalDate FIRST_DATE = LocalDate.now().plusDays(10);
+
+	@Test
+	void concurrentChangesKeepSeatsAndStatusConsistent() throws Exception {
+		BookingData db = bookings();
+		var service = new FlightBookingService(db);
+		Set<String> cancelled = ConcurrentHashMap.newKeySet();
+
+		List<Future<?>> tasks = new ArrayList<>();
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int t = 0; t < THREADS; t++) {
+				tasks.add(executor.submit(() -> {
+					var random = ThreadLocalRandom.current();
+					for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+						int booking = random.nextInt(BOOKINGS);
+						String number = bookingNumber(booking);
+						int route = random.nextInt(2);
+						try {
+							switch (random.nextInt(10)) {
+								case 0 -> {
+									service.cancelBooking(number, firstName(booking), lastName(booking));
+									cancelled.add(number);
+								}
+								case 1, 2, 3, 4 -> service.changeBooking(number, firstName(booking),
+										lastName(booking), FIRST_DATE.plusDays(random.nextInt(2)).toString(),
+										AIRPORTS.get(route), AIRPORTS.get(route + 1));
+								default -> service.changeSeat(number, firstName(booking), lastName(booking),
+										SeatInventory.seatNumber(random.nextInt(SeatInventory.SEATS)));
+							}
+						}
+						catch (IllegalArgumentException e) {
+							// Seat taken, flight full or booking cancelled: rejected, not corrupted
+						}
+					}
+				}));
+				if (t % (THREADS / READERS) == 0) {
+					tasks.add(executor.submit(() -> {
+						var random = ThreadLocalRandom.current();
+						for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+							if (random.nextBoolean()) {
+								int booking = random.nextInt(BOOKINGS);
+								assertConsistent(service.getBookingDetails(bookingNumber(booking),
+										firstName(booking), lastName(booking)));
+							}
+							else {
+								List<BookingDetails> all = service.getBookings();
+								assertThat(all).hasSize(BOOKINGS);
+								all.forEach(FlightBookingServiceConcurrencyTest::assertConsistent);
+							}
+						}
+					}));
+				}
+			}
+			for (Future<?> task : tasks) {
+				task.get();
+			}
+		}
+
+		Map<Flight, BitSet> expected = new HashMap<>();
+		for (Booking booking : db.getBookings()) {
+			var s = booking.snapshot();
+			if (cancelled.contains(booking.getBookingNumber())) {
+				assertThat(s.bookingStatus()).as(booking.getBookingNumber()).isEqualTo(BookingStatus.CANCELLED);
+			}
+			if (s.bookingStatus() == BookingStatus.CANCELLED) {
+				continue;
+			}
+			int seat = SeatInventory.seatIndex(s.seatNumber());
+			assertThat(seat).as("seat of %s", booking.getBookingNumber()).isNotNegative();
+			BitSet seats = expected.computeIfAbsent(Flight.of(s), f -> new BitSet(SeatInventory.SEATS));
+			assertThat(seats.get(seat)).as("seat %s on %s taken twice", s.seatNumber(), Flight.of(s)).isFalse();
+			seats.set(seat);
+		}
+		for (Booking booking : db.getBookings()) {
+			int index = Integer.parseInt(booking.getBookingNumber().substring(1));
+			var s = booking.snapshot();
+			BitSet occupied = service.getOccupiedSeats(booking.getBookingNumber(), firstName(index), lastName(index));
+			assertThat(occupied).as("occupancy of %s", Flight.of(s))
+				.isEqualTo(expected.getOrDefault(Flight.of(s), new BitSet()));
+		}
+	}
+
+	// Each details object is built from a single snapshot, so it must show one of the
+	// states the writers produce, never a mix of two
+	private static void assertConsistent(BookingDetails details) {
+		int index = Integer.parseInt(details.bookingNumber().substring(1));
+		assertThat(details.firstName()).isEqualTo(firstName(index));
+		assertThat(details.lastName()).isEqualTo(lastName(index));
+		int route = AIRPORTS.indexOf(details.from());
+		assertThat(route == 0 || route == 1).as("route of %s", details).isTrue();
+		assertThat(details.to()).as("route of %s", details).isEqualTo(AIRPORTS.get(route + 1));
+		assertThat(details.date().equals(FIRST_DATE) || details.date().equals(FIRST_DATE.plusDays(1)))
+			.as("date of %s", details)
+			.isTrue();
+		assertThat(SeatInventory.seatIndex(details.seatNumber())).as("seat of %s", details).isNotNegative();
+	}
+
+	// 50 bookings on each of four flights, leaving seats free for the changes to move them around
+	private static BookingData bookings() {
+		List<Customer> customers = new ArrayList<>();
+		List<Booking> bookings = new ArrayList<>();
+		for (int i = 0; i < BOOKINGS; i++) {
+			var customer = new Customer(firstName(i), lastName(i));
+			var flight = i % 4;
+			var booking = new Booking(bookingNumber(i), FIRST_DATE.plusDays(flight / 2), customer,
+					BookingStatus.CONFIRMED, AIRPORTS.get(flight % 2), AIRPORTS.get(1 + flight % 2),
+					SeatInventory.seatNumber(i / 4), BookingClass.ECONOMY);
+			customer.getBookings().add(booking);
+			customers.add(customer);
+			bookings.add(booking);
+		}
+		var db = new BookingData();
+		db.setCustomers(customers);
+		db.setBookings(bookings);
+		return db;
+	}
+
+	private static String bookingNumber(int index) {
+		return "S" + index;
+	}
+
+	private static String firstName(int index) {
+		return "First" + index;
+	}
+
+	private static String lastName(int index) {
+		return "Last" + index;
+	}
+
+}
@@ -0,0 +1,90 @@
+package ai.spring.demo.ai.playground.services;
+
+import ai.spring.demo.ai.playground.data.Booking;
+import ai.spring.demo.ai.playground.data.BookingClass;
+import ai.spring.demo.ai.playground.data.BookingData;
+import ai.spring.demo.ai.playground.data.BookingDetails;
+import ai.spring.demo.ai.playground.data.BookingStatus;
+import ai.spring.demo.ai.playground.data.CompactBookingData;
+import ai.spring.demo.ai.playground.data.Customer;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FlightBookingServiceTest {
+
+	private static final LocalDate DATE = LocalDate.now().plusDays(10);
+
+	@Test
+	void failedChangeReleasesTheSeatAndTheIndexEntry() {
+		var jane = new Customer("Jane", "Doe");
+		var booking = new Booking("101", DATE, jane, BookingStatus.CONFIRMED, "LAX", "JFK", "1A",
+				BookingClass.ECONOMY) {
+
+			private boolean fail = true;
+
+			@Override
+			public boolean compareAndSet(Snapshot expected, Snapshot newSnapshot) {
+				if (fail) {
+					fail = false;
+					throw new IllegalStateException("Store failure");
+				}
+				return super.compareAndSet(expected, newSnapshot);
+			}
+
+		};
+		var service = new FlightBookingService(store(new BookingData(), jane, booking));
+		LocalDate newDate = DATE.plusDays(1);
+
+		assertThatThrownBy(() -> service.changeBooking("101", "Jane", "Doe", newDate.toString(), "LAX", "JFK"))
+			.isInstanceOf(IllegalStateException.class);
+		assertThat(onDate(service, newDate)).isEmpty();
+
+		service.changeBooking("101", "Jane", "Doe", newDate.toString(), "LAX", "JFK");
+		assertThat(service.getBookingDetails("101", "Jane", "Doe").seatNumber()).isEqualTo("1A");
+		assertThat(onDate(service, newDate)).hasSize(1);
+	}
+
+	@Test
+	void compactStoreRejectsAnUnstorableChangeBeforeAllocatingASeat() {
+		var jane = new Customer("Jane", "Doe");
+		var booking = new Booking("101", DATE, jane, BookingStatus.CONFIRMED, "LAX", "JFK", "1A",
+				BookingClass.ECONOMY);
+		var service = new FlightBookingService(store(new CompactBookingData(), jane, booking));
+		LocalDate farFuture = LocalDate.of(9999, 12, 31);
+
+		assertThatThrownBy(() -> service.changeBooking("101", "Jane", "Doe", farFuture.toString(), "LAX", "JFK"))
+			.isInstanceOf(IllegalArgumentException.class);
+		assertThat(onDate(service, farFuture)).isEmpty();
+		assertThat(service.getBookingDetails("101", "Jane", "Doe").date()).isEqualTo(DATE);
+		assertThat(service.getOccupiedSeats("101", "Jane", "Doe").cardinality()).isEqualTo(1);
+	}
+
+	@Test
+	void invalidAirportCodeIsRejected() {
+		var jane = new Customer("Jane", "Doe");
+		var booking = new Booking("101", DATE, jane, BookingStatus.CONFIRMED, "LAX", "JFK", "1A",
+				BookingClass.ECONOMY);
+		var service = new FlightBookingService(store(new CompactBookingData(), jane, booking));
+
+		assertThatThrownBy(() -> service.changeBooking("101", "Jane", "Doe", DATE.toString(), "LAX", "New York"))
+			.isInstanceOf(IllegalArgumentException.class);
+		assertThat(service.getBookingDetails("101", "Jane", "Doe").to()).isEqualTo("JFK");
+	}
+
+	private static BookingData store(BookingData db, Customer customer, Booking booking) {
+		customer.getBookings().add(booking);
+		db.setCustomers(List.of(customer));
+		db.setBookings(List.of(booking));
+		return db;
+	}
+
+	private static List<BookingDetails> onDate(FlightBookingService service, LocalDate date) {
+		return service.queryBookings(new BookingQuery(date, date, null, null, null)).toList();
+	}
+
+}